@@ -0,0 +1,118 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Random;
+
+// Ad hoc front end benchmarks over generated source. Kept out of src, it's
+// in the interpreter's package only to reach the package-private Scanner and
+// Parser. Compile it against the interpreter's classes, e.g.
+//   javac -cp out -d out bench/src/com/craftinginterpreters/lox/Bench.java
+//   java -cp out com.craftinginterpreters.lox.Bench scan
+public class Bench {
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.err.println("Usage: bench scan|parse");
+            System.exit(64);
+        }
+
+        switch (args[0]) {
+            case "scan":
+                scan(numericSource(200000));
+                break;
+            case "parse":
+                parse(expressionSource(50000));
+                break;
+            default:
+                System.err.println("Unknown benchmark " + args[0]);
+                System.exit(64);
+        }
+    }
+
+    // Data script style source: each line a call with integer and decimal
+    // literals of varying length
+    private static String numericSource(int lines) {
+        Random random = new Random(42);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            source.append("row(").append(random.nextInt(100000));
+            for (int column = 0; column < 7; column++) {
+                source.append(", ").append(random.nextInt(1000)).append('.')
+                        .append(random.nextInt(100000000));
+            }
+            source.append(");\n");
+        }
+        return source.toString();
+    }
+
+    // Expression heavy source: assignments of arithmetic, comparison and
+    // logical expressions over locals, calls, fields and indexing
+    private static String expressionSource(int lines) {
+        Random random = new Random(42);
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            source.append("x = ");
+            appendExpression(source, random, 4);
+            source.append(";\n");
+        }
+        return source.toString();
+    }
+
+    private static final String[] OPERATORS = {
+            " + ", " - ", " * ", " / ", " < ", " >= ", " == ", " and ", " or " };
+
+    private static void appendExpression(StringBuilder source, Random random, int depth) {
+        if (depth == 0) {
+            switch (random.nextInt(4)) {
+                case 0:
+                    source.append(random.nextInt(1000));
+                    break;
+                case 1:
+                    source.append("a.b");
+                    break;
+                case 2:
+                    source.append("v[i]");
+                    break;
+                default:
+                    source.append("f(n)");
+                    break;
+            }
+            return;
+        }
+        if (random.nextInt(5) == 0) {
+            source.append("-(");
+            appendExpression(source, random, depth - 1);
+            source.append(')');
+            return;
+        }
+        appendExpression(source, random, depth - 1);
+        source.append(OPERATORS[random.nextInt(OPERATORS.length)]);
+        appendExpression(source, random, depth - 1);
+    }
+
+    private static void parse(String source) {
+        List<Token> tokens = new Scanner(source).scanTokens();
+        long best = Long.MAX_VALUE;
+        int statements = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            statements = new Parser(tokens).parse().size();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println("parse: " + tokens.size() + " tokens, " + statements
+                + " statements, best of " + ROUNDS + ": " + best / 1000000 + " ms");
+    }
+
+    private static void scan(String source) {
+        long best = Long.MAX_VALUE;
+        int tokens = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            tokens = new Scanner(source).scanTokens().size();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.println("scan: " + tokens + " tokens, best of " + ROUNDS + ": "
+                + best / 1000000 + " ms");
+    }
+}
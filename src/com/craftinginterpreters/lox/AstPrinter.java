@@ -31,6 +31,74 @@ class AstPrinter implements Expr.Visitor<String> {
         return parenthesize(expr.operator.lexeme, expr.right);
     }
 
+    @Override
+    public String visitAssignExpr(Expr.Assign expr) {
+        return parenthesize("= " + expr.name.lexeme, expr.value);
+    }
+
+    @Override
+    public String visitCallExpr(Expr.Call expr) {
+        Expr[] exprs = new Expr[expr.arguments.size() + 1];
+        exprs[0] = expr.callee;
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            exprs[i + 1] = expr.arguments.get(i);
+        }
+        return parenthesize("call", exprs);
+    }
+
+    // the body is statements, which this only prints expressions of
+    @Override
+    public String visitFunctionExpr(Expr.Function expr) {
+        StringBuilder name = new StringBuilder("fun (");
+        for (int i = 0; i < expr.params.size(); i++) {
+            if (i > 0) {
+                name.append(" ");
+            }
+            name.append(expr.params.get(i).lexeme);
+        }
+        return parenthesize(name.append(")").toString());
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return parenthesize(". " + expr.name.lexeme, expr.object);
+    }
+
+    @Override
+    public String visitIndexExpr(Expr.Index expr) {
+        return parenthesize("[]", expr.object, expr.index);
+    }
+
+    @Override
+    public String visitIndexSetExpr(Expr.IndexSet expr) {
+        return parenthesize("[]=", expr.object, expr.index, expr.value);
+    }
+
+    @Override
+    public String visitLogicalExpr(Expr.Logical expr) {
+        return parenthesize(expr.operator.lexeme, expr.left, expr.right);
+    }
+
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        return parenthesize(".= " + expr.name.lexeme, expr.object, expr.value);
+    }
+
+    @Override
+    public String visitSuperExpr(Expr.Super expr) {
+        return "super." + expr.method.lexeme;
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        return "this";
+    }
+
+    @Override
+    public String visitVariableExpr(Expr.Variable expr) {
+        return expr.name.lexeme;
+    }
+
     private String parenthesize(String name, Expr... exprs) {
         StringBuilder builder = new StringBuilder();
 
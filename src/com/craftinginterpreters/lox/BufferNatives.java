@@ -0,0 +1,50 @@
+package com.craftinginterpreters.lox;
+
+// Off-heap number buffers, see LoxBuffer. Buffers also work with get, set,
+// length and b[i] like arrays.
+//   buffer(length)       new buffer of `length` zeros
+//   sum(buffer)          total of the elements
+//   fill(buffer, number) set every element to the number
+//   copy(source, target) copy all of source to the start of target
+//   sort(buffer)         put the elements in ascending order, in place
+class BufferNatives {
+    static void define(Environment globals) {
+        NativeFunction.define(globals, "buffer", 1, (interpreter, arguements) -> {
+            double length = NativeFunction.number(arguements.get(0), "Buffer length");
+            if (length < 0 || length != Math.floor(length) || length > LoxBuffer.MAX_LENGTH) {
+                throw new NativeError("Buffer length must be an integer from 0 to "
+                        + LoxBuffer.MAX_LENGTH + ".");
+            }
+            return new LoxBuffer((int) length);
+        });
+
+        NativeFunction.define(globals, "sum", 1, (interpreter, arguements) -> {
+            return buffer(arguements.get(0)).sum();
+        });
+
+        NativeFunction.define(globals, "fill", 2, (interpreter, arguements) -> {
+            LoxBuffer buffer = buffer(arguements.get(0));
+            buffer.fill(NativeFunction.number(arguements.get(1), "Fill value"));
+            return buffer;
+        });
+
+        NativeFunction.define(globals, "copy", 2, (interpreter, arguements) -> {
+            LoxBuffer target = buffer(arguements.get(1));
+            buffer(arguements.get(0)).copyTo(target);
+            return target;
+        });
+
+        NativeFunction.define(globals, "sort", 1, (interpreter, arguements) -> {
+            LoxBuffer buffer = buffer(arguements.get(0));
+            buffer.sort();
+            return buffer;
+        });
+    }
+
+    private static LoxBuffer buffer(Object value) {
+        if (value instanceof LoxBuffer) {
+            return (LoxBuffer) value;
+        }
+        throw new NativeError("Expected a buffer.");
+    }
+}
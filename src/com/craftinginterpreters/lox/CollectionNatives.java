@@ -0,0 +1,99 @@
+package com.craftinginterpreters.lox;
+
+// Array and map natives. Both, and buffers (see BufferNatives), can also be
+// indexed with c[key] and c[key] = value.
+//   array()            new empty array
+//   push(array, value) append, returns the array
+//   map()              new empty map
+//   has(map, key)      whether key is present
+//   remove(map, key)   drop key, returns whether it was present
+//   keys(map)          array of the keys
+//   get(c, key)        element at key, nil for a missing map key
+//   set(c, key, v)     store v at key, returns v
+//   length(c)          number of elements
+class CollectionNatives {
+    static void define(Environment globals) {
+        NativeFunction.define(globals, "array", 0, (interpreter, arguements) -> new LoxArray());
+
+        NativeFunction.define(globals, "push", 2, (interpreter, arguements) -> {
+            LoxArray array = array(arguements.get(0));
+            array.push(arguements.get(1));
+            return array;
+        });
+
+        NativeFunction.define(globals, "map", 0, (interpreter, arguements) -> new LoxMap());
+
+        NativeFunction.define(globals, "has", 2, (interpreter, arguements) -> {
+            return map(arguements.get(0)).has(arguements.get(1));
+        });
+
+        NativeFunction.define(globals, "remove", 2, (interpreter, arguements) -> {
+            return map(arguements.get(0)).remove(arguements.get(1));
+        });
+
+        NativeFunction.define(globals, "keys", 1, (interpreter, arguements) -> {
+            return map(arguements.get(0)).keys();
+        });
+
+        NativeFunction.define(globals, "get", 2, (interpreter, arguements) -> {
+            return get(arguements.get(0), arguements.get(1));
+        });
+
+        NativeFunction.define(globals, "set", 3, (interpreter, arguements) -> {
+            return set(arguements.get(0), arguements.get(1), arguements.get(2));
+        });
+
+        NativeFunction.define(globals, "length", 1, (interpreter, arguements) -> {
+            Object collection = arguements.get(0);
+            if (collection instanceof LoxArray) {
+                return (double) ((LoxArray) collection).size();
+            }
+            if (collection instanceof LoxBuffer) {
+                return (double) ((LoxBuffer) collection).length();
+            }
+            return (double) map(collection).size();
+        });
+    }
+
+    // Shared with the interpreter's index expressions
+    static Object get(Object collection, Object key) {
+        if (collection instanceof LoxArray) {
+            return ((LoxArray) collection).get(LoxArray.index(key));
+        }
+        if (collection instanceof LoxMap) {
+            return ((LoxMap) collection).get(key);
+        }
+        if (collection instanceof LoxBuffer) {
+            return ((LoxBuffer) collection).get(LoxArray.index(key));
+        }
+        throw new NativeError("Only arrays, maps and buffers can be indexed.");
+    }
+
+    static Object set(Object collection, Object key, Object value) {
+        if (collection instanceof LoxArray) {
+            ((LoxArray) collection).set(LoxArray.index(key), value);
+        } else if (collection instanceof LoxMap) {
+            ((LoxMap) collection).set(key, value);
+        } else if (collection instanceof LoxBuffer) {
+            ((LoxBuffer) collection).set(LoxArray.index(key),
+                    NativeFunction.number(value, "Buffer element"));
+        } else {
+            throw new NativeError("Only arrays, maps and buffers can be indexed.");
+        }
+        return value;
+    }
+
+    private static LoxArray array(Object value) {
+        if (value instanceof LoxArray) {
+            return (LoxArray) value;
+        }
+        throw new NativeError("Expected an array.");
+    }
+
+    private static LoxMap map(Object value) {
+        if (value instanceof LoxMap) {
+            return (LoxMap) value;
+        }
+        throw new NativeError("Expected a map.");
+    }
+}
@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+// Lox string produced by PLUS once the result gets long.
+// Building a string in a loop (s = s + x) would copy the whole string on every
+// step, so instead the pieces are appended to a StringBuilder that is shared
+// between successive results and only flattened into a String when something
+// needs the text (print, stringify, equality).
+//
+// Values stay immutable: a ConcatString only owns the first `length` chars of
+// its builder. Appending to the newest value extends the builder in place,
+// appending to an older value (whose builder has grown since) copies it first.
+// The builder is locked while it's read or appended to, values can be shared
+// between threads running Lox code (see ParallelNatives).
+class ConcatString implements CharSequence {
+    // Below this a plain String concat is cheaper than setting up a builder
+    private static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat = null;
+
+    private ConcatString(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() + right.length() < MIN_LENGTH) {
+            return left.toString() + right.toString();
+        }
+
+        if (left instanceof ConcatString) {
+            ConcatString base = (ConcatString) left;
+            String text = right.toString();
+            synchronized (base.builder) {
+                if (base.builder.length() == base.length) {
+                    base.builder.append(text);
+                    return new ConcatString(base.builder, base.builder.length());
+                }
+            }
+        }
+
+        StringBuilder builder = new StringBuilder(2 * (left.length() + right.length()));
+        builder.append(left.toString()).append(right.toString());
+        return new ConcatString(builder, builder.length());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index >= length) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        synchronized (builder) {
+            return builder.charAt(index);
+        }
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            synchronized (builder) {
+                text = builder.substring(0, length);
+            }
+            flat = text;
+        }
+        return text;
+    }
+}
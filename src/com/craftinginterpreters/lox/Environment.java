@@ -2,13 +2,15 @@ package com.craftinginterpreters.lox;
 
 import static com.craftinginterpreters.lox.TokenType.values;
 
-import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Environment {
     public static final Object UNINTIALISED = new Object();
+    // Stands in for nil in globalValues, which can't hold null
+    static final Object NIL = new Object();
 
     final Environment enclosing;
     // comeback here..
@@ -20,8 +22,11 @@ public class Environment {
     // and not the new indexed pattern for arrays (local vars)
     // This is fine for globals but for locals it wont work
     // since they are not stored in a HM anymore
-    private final Map<String, Object> globalValues = new HashMap<>();
-    private final List<Object> values = new ArrayList<>();
+    // package private for Snapshot
+    // Concurrent since spawned tasks (see TaskNatives) read and assign
+    // globals while the script may still be defining new ones
+    final Map<String, Object> globalValues = new ConcurrentHashMap<>();
+    final List<Object> values = new ArrayList<>();
 
     Environment() {
         enclosing = null;
@@ -32,12 +37,12 @@ public class Environment {
     }
 
     Object get(Token name) {
-        if (globalValues.containsKey(name.lexeme)) {
-            Object value = globalValues.get(name.lexeme);
+        Object value = globalValues.get(name.lexeme);
+        if (value != null) {
             if (value == UNINTIALISED) {
                 throw new RuntimeError(name, "Uninitialised variable '" + name.lexeme + "'.");
             }
-            return value;
+            return value == NIL ? null : value;
         }
 
         if (enclosing != null) {
@@ -48,8 +53,7 @@ public class Environment {
     }
 
     void assign(Token name, Object value) {
-        if (globalValues.containsKey(name.lexeme)) {
-            globalValues.put(name.lexeme, value);
+        if (globalValues.replace(name.lexeme, value == null ? NIL : value) != null) {
             return;
         }
 
@@ -61,12 +65,14 @@ public class Environment {
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
+    // Globals are looked up by name, a global declared without a value stays
+    // UNINTIALISED until assigned. Locals take the next slot, in the order the
+    // Resolver numbered them.
     void define(String name, Object value) {
-        if (value == null) {
-            values.put(name, UNINTIALISED);
-
+        if (enclosing == null) {
+            globalValues.put(name, value == null ? UNINTIALISED : value);
         } else {
-            values.put(name, value);
+            values.add(value);
         }
     }
 
@@ -8,9 +8,15 @@ abstract class Expr{
    R visitBinaryExpr(Binary expr);
    R visitCallExpr(Call expr);
    R visitFunctionExpr(Function expr);
+   R visitGetExpr(Get expr);
    R visitGroupingExpr(Grouping expr);
+   R visitIndexExpr(Index expr);
+   R visitIndexSetExpr(IndexSet expr);
    R visitLiteralExpr(Literal expr);
    R visitLogicalExpr(Logical expr);
+   R visitSetExpr(Set expr);
+   R visitSuperExpr(Super expr);
+   R visitThisExpr(This expr);
    R visitUnaryExpr(Unary expr);
    R visitVariableExpr(Variable expr);
 }
@@ -23,6 +29,10 @@ abstract class Expr{
    final Token name;
    final Expr value;
 
+   int distance = -1;
+   int index;
+   Superinstruction form = Superinstruction.NONE;
+
    @Override
    <R> R accept(Visitor<R> visitor) {
     return visitor.visitAssignExpr(this);
@@ -39,6 +49,8 @@ abstract class Expr{
    final Token operator;
    final Expr right;
 
+   Superinstruction form = Superinstruction.NONE;
+
    @Override
    <R> R accept(Visitor<R> visitor) {
     return visitor.visitBinaryExpr(this);
@@ -55,6 +67,8 @@ abstract class Expr{
    final Token paren;
    final List<Expr> arguments;
 
+   InlineSite inline;
+
    @Override
    <R> R accept(Visitor<R> visitor) {
     return visitor.visitCallExpr(this);
@@ -74,6 +88,22 @@ abstract class Expr{
     return visitor.visitFunctionExpr(this);
    }
  }
+ static class Get extends Expr {
+   Get(Expr object, Token name) {
+     this.object = object;
+     this.name = name;
+   }
+
+   final Expr object;
+   final Token name;
+
+   PropertyCache cache;
+
+   @Override
+   <R> R accept(Visitor<R> visitor) {
+    return visitor.visitGetExpr(this);
+   }
+ }
  static class Grouping extends Expr {
    Grouping(Expr expression) {
      this.expression = expression;
@@ -86,6 +116,40 @@ abstract class Expr{
     return visitor.visitGroupingExpr(this);
    }
  }
+ static class Index extends Expr {
+   Index(Expr object, Token bracket, Expr index) {
+     this.object = object;
+     this.bracket = bracket;
+     this.index = index;
+   }
+
+   final Expr object;
+   final Token bracket;
+   final Expr index;
+
+   @Override
+   <R> R accept(Visitor<R> visitor) {
+    return visitor.visitIndexExpr(this);
+   }
+ }
+ static class IndexSet extends Expr {
+   IndexSet(Expr object, Token bracket, Expr index, Expr value) {
+     this.object = object;
+     this.bracket = bracket;
+     this.index = index;
+     this.value = value;
+   }
+
+   final Expr object;
+   final Token bracket;
+   final Expr index;
+   final Expr value;
+
+   @Override
+   <R> R accept(Visitor<R> visitor) {
+    return visitor.visitIndexSetExpr(this);
+   }
+ }
  static class Literal extends Expr {
    Literal(Object value) {
      this.value = value;
@@ -114,6 +178,56 @@ abstract class Expr{
     return visitor.visitLogicalExpr(this);
    }
  }
+ static class Set extends Expr {
+   Set(Expr object, Token name, Expr value) {
+     this.object = object;
+     this.name = name;
+     this.value = value;
+   }
+
+   final Expr object;
+   final Token name;
+   final Expr value;
+
+   PropertyCache cache;
+
+   @Override
+   <R> R accept(Visitor<R> visitor) {
+    return visitor.visitSetExpr(this);
+   }
+ }
+ static class Super extends Expr {
+   Super(Token keyword, Token method) {
+     this.keyword = keyword;
+     this.method = method;
+   }
+
+   final Token keyword;
+   final Token method;
+
+   int distance = -1;
+   int index;
+
+   @Override
+   <R> R accept(Visitor<R> visitor) {
+    return visitor.visitSuperExpr(this);
+   }
+ }
+ static class This extends Expr {
+   This(Token keyword) {
+     this.keyword = keyword;
+   }
+
+   final Token keyword;
+
+   int distance = -1;
+   int index;
+
+   @Override
+   <R> R accept(Visitor<R> visitor) {
+    return visitor.visitThisExpr(this);
+   }
+ }
  static class Unary extends Expr {
    Unary(Token operator, Expr right) {
      this.operator = operator;
@@ -135,11 +249,23 @@ abstract class Expr{
 
    final Token name;
 
+   int distance = -1;
+   int index;
+
    @Override
    <R> R accept(Visitor<R> visitor) {
     return visitor.visitVariableExpr(this);
    }
  }
 
+   // Execution count, only maintained when the interpreter is profiling.
+   long hits;
+   // Nested past Parser.DEEP_NESTING, evaluated and resolved with explicit stacks.
+   boolean deep;
+   // Set when the value is cached for each run of an enclosing loop, see LoopOptimizer.
+   Hoisted hoisted;
+   // Proven by TypeInference, UNKNOWN values are checked at runtime.
+   LoxType type = LoxType.UNKNOWN;
+
    abstract <R> R accept(Visitor<R> visitor);
 }
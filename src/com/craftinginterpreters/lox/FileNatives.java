@@ -0,0 +1,59 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Natives that read a file a record at a time, in a single pass, see
+// LoxFileReader:
+//   lines(path)              reader of the file's lines, without the "\n"
+//                            (or "\r\n") at the end of each
+//   records(path, separator) reader of the text between separators
+// Readers are stepped through with next and done like generators:
+//   for (var line = next(r); !done(r); line = next(r)) ...
+// The text is read as UTF-8, and only once something needs it, see
+// MappedText. Paths are relative to the directory Lox was started in.
+class FileNatives {
+    private static final byte[] NEWLINE = { '\n' };
+
+    static void define(Environment globals) {
+        NativeFunction.define(globals, "lines", 1, (interpreter, arguements) -> {
+            return open(arguements.get(0), NEWLINE, true);
+        });
+
+        NativeFunction.define(globals, "records", 2, (interpreter, arguements) -> {
+            if (!(arguements.get(1) instanceof CharSequence)) {
+                throw new NativeError("Record separator must be a string.");
+            }
+            byte[] separator = arguements.get(1).toString().getBytes(StandardCharsets.UTF_8);
+            if (separator.length == 0) {
+                throw new NativeError("Record separator can't be empty.");
+            }
+            return open(arguements.get(0), separator, false);
+        });
+    }
+
+    private static LoxFileReader open(Object value, byte[] separator, boolean trimReturn) {
+        if (!(value instanceof CharSequence)) {
+            throw new NativeError("File path must be a string.");
+        }
+        String name = value.toString();
+        try {
+            Path path = Paths.get(name);
+            if (Files.isDirectory(path)) {
+                throw new NativeError("'" + name + "' is a directory.");
+            }
+            return new LoxFileReader(path, separator, trimReturn);
+        } catch (InvalidPathException e) {
+            throw new NativeError("Invalid file path '" + name + "'.");
+        } catch (NoSuchFileException e) {
+            throw new NativeError("No file at '" + name + "'.");
+        } catch (IOException e) {
+            throw new NativeError("Can't read '" + name + "': " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.craftinginterpreters.lox;
+
+// Marks an expression that can't change value while its loop runs, see
+// LoopOptimizer. The interpreter keeps the first value it computes in each run
+// of the loop and hands it back for the rest of that run.
+class Hoisted {
+    // a slot whose expression hasn't been evaluated yet in this run
+    static final Object UNSET = new Object();
+
+    final Stmt.While loop;
+    // slot in the values the interpreter keeps for each run of the loop
+    final int index;
+
+    Hoisted(Stmt.While loop, int index) {
+        this.loop = loop;
+        this.index = index;
+    }
+}
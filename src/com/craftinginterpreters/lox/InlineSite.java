@@ -0,0 +1,219 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A call the Inliner matched to a small global function, attached to the
+// Call node. Nothing is decided until the call first runs: the callee's body
+// may still be lazy, and parsing it early would move its errors.
+//
+// A body that is a single `return expr;` is inlined in one of two ways. When
+// the arguments are literals or locals and the expression can't run Lox code
+// or assign anything (sq(i) -> i * i), the arguments are substituted for the
+// params in a copy of the expression, which then runs in the caller's frame.
+// Otherwise the arguments go into a frame of their own and the return
+// expression is evaluated there, which still saves the argument list, the
+// block and the Return exception of a real call.
+class InlineSite {
+    // bodies with more nodes than this are called as usual
+    private static final int MAX_NODES = 24;
+
+    final Stmt.Function function;
+    private boolean prepared = false;
+    // the return expression with the arguments substituted, or null
+    Expr substituted;
+    // the return expression, run in a frame holding the arguments, or null
+    Expr body;
+
+    InlineSite(Stmt.Function function) {
+        this.function = function;
+    }
+
+    // Looks at the body the first time the call runs. False when the function
+    // turned out not to be worth inlining, the call then goes the normal way.
+    synchronized boolean prepare(Interpreter interpreter, Expr.Call call) {
+        if (prepared) {
+            return substituted != null || body != null;
+        }
+        List<Stmt> statements = function.body != null
+                ? function.body
+                : function.lazyBody.body(interpreter);
+        prepared = true;
+
+        if (statements.size() != 1 || !(statements.get(0) instanceof Stmt.Return)) {
+            return false;
+        }
+        Expr value = ((Stmt.Return) statements.get(0)).value;
+        // a deep expression is far too big anyway, and size() would recurse
+        // all the way down it
+        if (value == null || value.deep || size(value) > MAX_NODES || callsItself(value)) {
+            return false;
+        }
+
+        if (substitutable(call.arguments)) {
+            substituted = value.accept(new Substitution(call.arguments));
+        }
+        if (substituted == null) {
+            body = value;
+        }
+        return true;
+    }
+
+    private boolean callsItself(Expr expr) {
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if (variable.distance == -1 && variable.name.lexeme.equals(function.name.lexeme)) {
+                return true;
+            }
+        }
+        for (Expr child : TreeWalker.children(expr)) {
+            if (callsItself(child)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Arguments that can be read anywhere in the inlined expression without
+    // changing what it sees: locals can't fail to read, and a pure body can't
+    // assign them
+    private static boolean substitutable(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            if (argument instanceof Expr.Literal) {
+                continue;
+            }
+            if (argument instanceof Expr.Variable && ((Expr.Variable) argument).distance >= 0) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // Node count, stopping early once past MAX_NODES
+    private static int size(Expr expr) {
+        int size = 1;
+        for (Expr child : TreeWalker.children(expr)) {
+            size += size(child);
+            if (size > MAX_NODES) {
+                break;
+            }
+        }
+        return size;
+    }
+
+    // Copies a pure expression, one that can fail but can't call back into Lox
+    // code or assign, with the params replaced by the call's arguments. Any
+    // other expression gives null. The body's frame only holds the params, so
+    // a local in it is always a param and anything else is a global, which
+    // reads the same from the caller.
+    //
+    // Every node in the result is new, arguments and literals included. The
+    // passes and the interpreter keep state on nodes (hits, hoisted, type,
+    // form, property caches), which is only right for the one place a node
+    // sits in.
+    private static class Substitution implements Expr.Visitor<Expr> {
+        private final List<Expr> arguments;
+
+        Substitution(List<Expr> arguments) {
+            this.arguments = arguments;
+        }
+
+        @Override
+        public Expr visitAssignExpr(Expr.Assign expr) {
+            return null;
+        }
+
+        @Override
+        public Expr visitBinaryExpr(Expr.Binary expr) {
+            Expr left = expr.left.accept(this);
+            Expr right = left != null ? expr.right.accept(this) : null;
+            return right != null ? new Expr.Binary(left, expr.operator, right) : null;
+        }
+
+        @Override
+        public Expr visitCallExpr(Expr.Call expr) {
+            return null;
+        }
+
+        @Override
+        public Expr visitFunctionExpr(Expr.Function expr) {
+            return null;
+        }
+
+        @Override
+        public Expr visitGetExpr(Expr.Get expr) {
+            Expr object = expr.object.accept(this);
+            return object != null ? new Expr.Get(object, expr.name) : null;
+        }
+
+        @Override
+        public Expr visitGroupingExpr(Expr.Grouping expr) {
+            Expr expression = expr.expression.accept(this);
+            return expression != null ? new Expr.Grouping(expression) : null;
+        }
+
+        @Override
+        public Expr visitIndexExpr(Expr.Index expr) {
+            Expr object = expr.object.accept(this);
+            Expr index = object != null ? expr.index.accept(this) : null;
+            return index != null ? new Expr.Index(object, expr.bracket, index) : null;
+        }
+
+        @Override
+        public Expr visitIndexSetExpr(Expr.IndexSet expr) {
+            return null;
+        }
+
+        @Override
+        public Expr visitLiteralExpr(Expr.Literal expr) {
+            return new Expr.Literal(expr.value);
+        }
+
+        @Override
+        public Expr visitLogicalExpr(Expr.Logical expr) {
+            Expr left = expr.left.accept(this);
+            Expr right = left != null ? expr.right.accept(this) : null;
+            return right != null ? new Expr.Logical(left, expr.operator, right) : null;
+        }
+
+        @Override
+        public Expr visitSetExpr(Expr.Set expr) {
+            return null;
+        }
+
+        @Override
+        public Expr visitSuperExpr(Expr.Super expr) {
+            return null;
+        }
+
+        @Override
+        public Expr visitThisExpr(Expr.This expr) {
+            return null;
+        }
+
+        @Override
+        public Expr visitUnaryExpr(Expr.Unary expr) {
+            Expr right = expr.right.accept(this);
+            return right != null ? new Expr.Unary(expr.operator, right) : null;
+        }
+
+        @Override
+        public Expr visitVariableExpr(Expr.Variable expr) {
+            if (expr.distance == 0) {
+                // substitutable() only lets literals and locals through
+                Expr argument = arguments.get(expr.index);
+                return argument instanceof Expr.Literal
+                        ? visitLiteralExpr((Expr.Literal) argument)
+                        : copy((Expr.Variable) argument);
+            }
+            return copy(expr);
+        }
+
+        private static Expr.Variable copy(Expr.Variable variable) {
+            Expr.Variable copy = new Expr.Variable(variable.name);
+            copy.distance = variable.distance;
+            copy.index = variable.index;
+            return copy;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Runs after the Resolver and marks calls to small global functions so the
+// interpreter can inline them, see InlineSite.
+//
+// A candidate is a top level `fun` whose name is declared once and never
+// assigned in the program, and whose body looks like a single return. That
+// only covers the code parsed so far: lazy bodies are marked when they're
+// parsed and may still rebind the name, so every inlined call checks first
+// that the global holds the function it was matched to and falls back to a
+// normal call if not.
+class Inliner {
+    // a lazy body of more tokens than this is too big to be worth a look
+    private static final int MAX_LAZY_TOKENS = 64;
+
+    private final Map<String, Stmt.Function> candidates = new HashMap<>();
+
+    void inline(List<Stmt> program) {
+        Map<String, Integer> declarations = new HashMap<>();
+        for (Stmt stmt : program) {
+            Token name = declaredName(stmt);
+            if (name != null) {
+                declarations.merge(name.lexeme, 1, Integer::sum);
+            }
+        }
+        for (Stmt stmt : program) {
+            if (stmt instanceof Stmt.Function) {
+                Stmt.Function function = (Stmt.Function) stmt;
+                if (declarations.get(function.name.lexeme) == 1 && looksInlinable(function)) {
+                    candidates.put(function.name.lexeme, function);
+                }
+            }
+        }
+
+        Set<String> assigned = new HashSet<>();
+        new TreeWalker() {
+            @Override
+            public Void visitAssignExpr(Expr.Assign expr) {
+                if (expr.distance == -1) {
+                    assigned.add(expr.name.lexeme);
+                }
+                return super.visitAssignExpr(expr);
+            }
+        }.walk(program);
+        candidates.keySet().removeAll(assigned);
+
+        mark(program);
+    }
+
+    // Marks the calls to candidates in code parsed after the program, i.e. a
+    // lazy body on its first call
+    void mark(List<Stmt> statements) {
+        if (candidates.isEmpty()) {
+            return;
+        }
+        new TreeWalker() {
+            @Override
+            public Void visitCallExpr(Expr.Call call) {
+                if (call.callee instanceof Expr.Variable) {
+                    Expr.Variable callee = (Expr.Variable) call.callee;
+                    Stmt.Function function = candidates.get(callee.name.lexeme);
+                    // a wrong argument count is left to the normal call to report
+                    if (callee.distance == -1 && function != null
+                            && function.params.size() == call.arguments.size()) {
+                        call.inline = new InlineSite(function);
+                    }
+                }
+                return super.visitCallExpr(call);
+            }
+        }.walk(statements);
+    }
+
+    private static Token declaredName(Stmt stmt) {
+        if (stmt instanceof Stmt.Function) {
+            return ((Stmt.Function) stmt).name;
+        }
+        if (stmt instanceof Stmt.Var) {
+            return ((Stmt.Var) stmt).name;
+        }
+        if (stmt instanceof Stmt.Class) {
+            return ((Stmt.Class) stmt).name;
+        }
+        return null;
+    }
+
+    // A cheap look that doesn't parse a lazy body, InlineSite has the final say
+    private static boolean looksInlinable(Stmt.Function function) {
+        if (function.body != null) {
+            return function.body.size() == 1 && function.body.get(0) instanceof Stmt.Return;
+        }
+        List<Token> tokens = function.lazyBody.tokens();
+        return tokens.size() <= MAX_LAZY_TOKENS && tokens.get(1).type == TokenType.RETURN;
+    }
+}
@@ -1,7 +1,9 @@
 package com.craftinginterpreters.lox;
 
+import java.io.PrintStream;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,45 +23,126 @@ import java.util.Map;
 // 5. Back within the visit method in step 3 the switch makes it negative
 // 6. -6 is returned
 
-class LocalInfo {
-    final int distance;
-    final int index;
-
-    LocalInfo(int distance, int index) {
-        this.distance = distance;
-        this.index = index;
-    }
-
-}
-
 class Interpreter implements Expr.Visitor<Object>,
         Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
-    private final Map<Expr, LocalInfo> locals = new HashMap<>();
+    final Environment globals;
+    private Environment environment;
+    // null unless profiling was asked for, see Profiler
+    private Profiler profiler = null;
+    private OutputSink output;
+    // null when the program wasn't run through the Inliner
+    private Inliner inliner = null;
+    private boolean hoistLoops = false;
+    private boolean inferTypes = false;
+    // run Superinstruction forms in one visit
+    private boolean fuse = true;
+    // values of the Hoisted expressions for the loops being run, innermost first
+    private LoopValues loopValues = null;
+
+    private static class LoopValues {
+        final Stmt.While loop;
+        final Object[] values;
+        final LoopValues enclosing;
+
+        LoopValues(Stmt.While loop, LoopValues enclosing) {
+            this.loop = loop;
+            this.values = new Object[loop.invariants];
+            Arrays.fill(values, Hoisted.UNSET);
+            this.enclosing = enclosing;
+        }
+    }
 
     Interpreter() {
-        globals.define("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
-
-            @Override
-            public Object call(Interpreter interpreter, List<Object> arguements) {
-                return (double) System.currentTimeMillis() / 100.0;
-            }
+        globals = new Environment();
+        environment = globals;
+        output = OutputSink.stdout(OutputSink.DEFAULT_THRESHOLD);
+        TimingNatives.define(globals);
+        CollectionNatives.define(globals);
+        ParallelNatives.define(globals);
+        LoxGenerator.define(globals);
+        TaskNatives.define(globals);
+        BufferNatives.define(globals);
+        FileNatives.define(globals);
+    }
 
-            @Override
-            public String toString() {
-                return "<native fn>";
-            }
-        });
+    // A worker that runs the parent's functions on another thread, see
+    // ParallelNatives and TaskNatives. It shares the globals, output, profiler
+    // and optimizations, the frames and loop values of the calls it runs are
+    // its own.
+    Interpreter(Interpreter parent) {
+        globals = parent.globals;
+        environment = globals;
+        output = parent.output;
+        profiler = parent.profiler;
+        if (profiler != null) {
+            profiler.share();
+        }
+        inliner = parent.inliner;
+        hoistLoops = parent.hoistLoops;
+        inferTypes = parent.inferTypes;
+        fuse = parent.fuse;
     }
 
     class BreakException extends RuntimeException {
     };
 
+    void enableProfiling() {
+        profiler = new Profiler();
+        // fused nodes skip counting their children
+        fuse = false;
+    }
+
+    void disableFusion() {
+        fuse = false;
+    }
+
+    void setInliner(Inliner inliner) {
+        this.inliner = inliner;
+    }
+
+    // Turns on LoopOptimizer for lazy bodies, the script itself is done by Lox
+    void setHoistLoops(boolean hoistLoops) {
+        this.hoistLoops = hoistLoops;
+    }
+
+    // Same for TypeInference
+    void setInferTypes(boolean inferTypes) {
+        this.inferTypes = inferTypes;
+    }
+
+    // Runs the optimizations a lazy body missed out on when the script was
+    // optimized, called once it's parsed and resolved
+    void optimizeBody(Stmt.Function declaration) {
+        if (inliner != null) {
+            inliner.mark(declaration.body);
+        }
+        if (hoistLoops) {
+            new LoopOptimizer().optimize(declaration);
+        }
+        if (inferTypes) {
+            new TypeInference().infer(declaration);
+        }
+    }
+
+    void setOutput(OutputSink output) {
+        this.output.flush();
+        this.output = output;
+    }
+
+    void flushOutput() {
+        output.flush();
+    }
+
+    void println(String text) {
+        output.println(text);
+    }
+
+    void reportProfile(PrintStream out) {
+        if (profiler != null) {
+            profiler.report(out);
+        }
+    }
+
     void interpret(List<Stmt> statements) {
         try {
             for (Stmt statement : statements) {
@@ -76,11 +159,7 @@ class Interpreter implements Expr.Visitor<Object>,
         }
 
         if (object instanceof Double) {
-            String text = object.toString();
-            if (text.endsWith(".0")) {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
+            return NumberFormatter.toString((double) object);
         }
 
         return object.toString();
@@ -91,6 +170,121 @@ class Interpreter implements Expr.Visitor<Object>,
         return new LoxFunction(expr, environment);
     }
 
+    @Override
+    public Object visitGetExpr(Expr.Get expr) {
+        return getProperty(expr, evaluate(expr.object));
+    }
+
+    Object getProperty(Expr.Get expr, Object object) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(expr.name, "Only instances have properties.");
+        }
+        LoxInstance instance = (LoxInstance) object;
+
+        // inline cache hit: same shape as last time, field is at the same slot
+        PropertyCache cache = expr.cache;
+        if (cache != null && cache.shape == instance.shape) {
+            if (cache.method == null) {
+                return instance.fields[cache.slot];
+            }
+            if (cache.klass == instance.klass) {
+                return cache.method.bind(instance);
+            }
+        }
+
+        int slot = instance.shape.slot(expr.name.lexeme);
+        if (slot >= 0) {
+            expr.cache = new PropertyCache(instance.shape, slot, null);
+            return instance.fields[slot];
+        }
+
+        LoxFunction method = instance.klass.findMethod(expr.name.lexeme);
+        if (method != null) {
+            expr.cache = new PropertyCache(instance.shape, instance.klass, method);
+            return method.bind(instance);
+        }
+
+        throw new RuntimeError(expr.name, "Undefined property '" + expr.name.lexeme + "'.");
+    }
+
+    @Override
+    public Object visitSetExpr(Expr.Set expr) {
+        LoxInstance instance = setTarget(expr, evaluate(expr.object));
+        return setProperty(expr, instance, evaluate(expr.value));
+    }
+
+    // checked before the value is evaluated
+    LoxInstance setTarget(Expr.Set expr, Object object) {
+        if (!(object instanceof LoxInstance)) {
+            throw new RuntimeError(expr.name, "Only instances have fields.");
+        }
+        return (LoxInstance) object;
+    }
+
+    Object setProperty(Expr.Set expr, LoxInstance instance, Object value) {
+        PropertyCache cache = expr.cache;
+        if (cache == null || cache.shape != instance.shape) {
+            Shape shape = instance.shape;
+            int slot = shape.slot(expr.name.lexeme);
+            if (slot >= 0) {
+                cache = new PropertyCache(shape, slot, null);
+            } else {
+                cache = new PropertyCache(shape, shape.size(), shape.with(expr.name.lexeme));
+            }
+            expr.cache = cache;
+        }
+
+        if (cache.transition != null) {
+            instance.addField(cache.transition, cache.slot, value);
+        } else {
+            instance.fields[cache.slot] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public Object visitSuperExpr(Expr.Super expr) {
+        LoxFunction method = findSuperMethod(expr);
+        if (method == null) {
+            throw new RuntimeError(expr.method, "Undefined property '" + expr.method.lexeme + "'.");
+        }
+        return method.bind(superReceiver(expr));
+    }
+
+    @Override
+    public Object visitThisExpr(Expr.This expr) {
+        return environment.getAt(expr.distance, expr.index);
+    }
+
+    @Override
+    public Object visitIndexExpr(Expr.Index expr) {
+        Object object = evaluate(expr.object);
+        return index(expr, object, evaluate(expr.index));
+    }
+
+    Object index(Expr.Index expr, Object object, Object index) {
+        try {
+            return CollectionNatives.get(object, index);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.bracket, error.getMessage());
+        }
+    }
+
+    @Override
+    public Object visitIndexSetExpr(Expr.IndexSet expr) {
+        Object object = evaluate(expr.object);
+        Object index = evaluate(expr.index);
+        return indexSet(expr, object, index, evaluate(expr.value));
+    }
+
+    Object indexSet(Expr.IndexSet expr, Object object, Object index, Object value) {
+        try {
+            return CollectionNatives.set(object, index, value);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.bracket, error.getMessage());
+        }
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -114,13 +308,17 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
-        Object right = evaluate(expr.right);
+        return unary(expr, evaluate(expr.right));
+    }
 
+    Object unary(Expr.Unary expr, Object right) {
         switch (expr.operator.type) {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                if (expr.right.type != LoxType.NUMBER) {
+                    checkNumberOperand(expr.operator, right);
+                }
                 return -(double) right;
         }
         // Unreachable
@@ -129,17 +327,11 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
-    }
-
-    private Object lookUpVariable(Token name, Expr expr) {
-        // make this an array look up
-        LocalInfo info = locals.get(expr);
-        if (info != null) {
-            return environment.getAt(info.distance, info.index);
-        } else {
-            return globals.get(name);
+        // the resolver leaves globals at distance -1
+        if (expr.distance >= 0) {
+            return environment.getAt(expr.distance, expr.index);
         }
+        return globals.get(expr.name);
     }
 
     private void checkNumberOperand(Token operator, Object operand) {
@@ -155,7 +347,7 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     // fix me: decide on whether to include 0 as false, python style
-    private boolean isTruthy(Object object) {
+    boolean isTruthy(Object object) {
         if (object == null) {
             return false;
         }
@@ -166,12 +358,25 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     private boolean isEqual(Object a, Object b) {
-        if (a == null && b == null) {
+        // names and literals from the source are shared (see StringTable), so
+        // equal strings are often the same object
+        if (a == b) {
             return true;
         }
-        if (a == null) {
+        if (a == null || b == null) {
             return false;
         }
+        // Strings may be String, ConcatString or MappedText, compare the
+        // flattened text. A MappedText can compare its bytes instead.
+        if (a instanceof CharSequence && b instanceof CharSequence) {
+            if (a instanceof MappedText) {
+                return ((MappedText) a).textEquals((CharSequence) b);
+            }
+            if (b instanceof MappedText) {
+                return ((MappedText) b).textEquals((CharSequence) a);
+            }
+            return a.toString().equals(b.toString());
+        }
         return a.equals(b);
     }
 
@@ -181,15 +386,62 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     public Object evaluate(Expr expr) {
+        if (expr.deep) {
+            return new IterativeEvaluator(this, profiler).evaluate(expr);
+        }
+        if (profiler != null) {
+            profiler.count(expr);
+        }
+        if (expr.hoisted != null) {
+            return hoisted(expr);
+        }
         return expr.accept(this);
     }
 
+    private Object hoisted(Expr expr) {
+        if (TaskNatives.tasksRunning()) {
+            // a task may be changing what the expression reads
+            return expr.accept(this);
+        }
+        Hoisted hoisted = expr.hoisted;
+        LoopValues run = loopValues;
+        while (run.loop != hoisted.loop) {
+            run = run.enclosing;
+        }
+        Object value = run.values[hoisted.index];
+        if (value == Hoisted.UNSET) {
+            value = expr.accept(this);
+            run.values[hoisted.index] = value;
+        }
+        return value;
+    }
+
     private void execute(Stmt stmt) {
+        if (profiler != null) {
+            profiler.count(stmt);
+        }
         stmt.accept(this);
     }
 
-    void resolve(Expr expr, int depth, int index) {
-        locals.put(expr, new LocalInfo(depth, index));
+    // A statement or expression of a suspended body, see LoxGenerator
+    void execute(Stmt stmt, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            execute(stmt);
+        } finally {
+            this.environment = previous;
+        }
+    }
+
+    Object evaluate(Expr expr, Environment environment) {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            return evaluate(expr);
+        } finally {
+            this.environment = previous;
+        }
     }
 
     void executeBlock(List<Stmt> statements, Environment environment) {
@@ -211,6 +463,37 @@ class Interpreter implements Expr.Visitor<Object>,
         return null;
     }
 
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        Object superclass = null;
+        if (stmt.superclass != null) {
+            superclass = evaluate(stmt.superclass);
+            if (!(superclass instanceof LoxClass)) {
+                throw new RuntimeError(stmt.superclass.name, "Superclass must be a class.");
+            }
+        }
+
+        Environment enclosing = environment;
+        if (stmt.superclass != null) {
+            environment = new Environment(environment);
+            environment.define("super", superclass);
+        }
+
+        Map<String, LoxFunction> methods = new HashMap<>();
+        for (Stmt.Function method : stmt.methods) {
+            LoxFunction function = new LoxFunction(method, environment, true,
+                    method.name.lexeme.equals("init"));
+            methods.put(method.name.lexeme, function);
+        }
+
+        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
+
+        environment = enclosing;
+        // defined once the class exists, methods only look the name up when run
+        environment.define(stmt.name.lexeme, klass);
+        return null;
+    }
+
     @Override
     public Void visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
@@ -236,8 +519,15 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        Object value = stmt.form == Superinstruction.PRINT_VARIABLE && fuse
+                ? visitVariableExpr((Expr.Variable) stmt.expression)
+                : evaluate(stmt.expression);
+        // numbers are formatted straight into the output buffer
+        if (value instanceof Double) {
+            output.println((double) value);
+        } else {
+            output.println(stringify(value));
+        }
         return null;
     }
 
@@ -263,6 +553,21 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Void visitWhileStmt(Stmt.While stmt) {
+        if (stmt.invariants > 0) {
+            LoopValues enclosing = loopValues;
+            loopValues = new LoopValues(stmt, enclosing);
+            try {
+                runLoop(stmt);
+            } finally {
+                loopValues = enclosing;
+            }
+            return null;
+        }
+        runLoop(stmt);
+        return null;
+    }
+
+    private void runLoop(Stmt.While stmt) {
         try {
             while (isTruthy(evaluate(stmt.condition))) {
                 execute(stmt.body);
@@ -270,7 +575,6 @@ class Interpreter implements Expr.Visitor<Object>,
         } catch (BreakException e) {
 
         }
-        return null;
     }
 
     @Override
@@ -278,13 +582,33 @@ class Interpreter implements Expr.Visitor<Object>,
         throw new BreakException();
     }
 
+    // LoxGenerator runs every yield itself
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        throw new RuntimeError(stmt.keyword, "Can't yield outside a generator.");
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
-        Object value = evaluate(expr.value);
-        LocalInfo info = locals.get(expr);
+        if (expr.form == Superinstruction.INCREMENT_LOCAL && fuse) {
+            Environment scope = environment.ancestor(expr.distance);
+            Object value = scope.values.get(expr.index);
+            if (value instanceof Double) {
+                Expr.Binary step = (Expr.Binary) expr.value;
+                double amount = (double) ((Expr.Literal) step.right).value;
+                Object result = step.operator.type == TokenType.PLUS
+                        ? (double) value + amount
+                        : (double) value - amount;
+                scope.values.set(expr.index, result);
+                return result;
+            }
+        }
+        return assign(expr, evaluate(expr.value));
+    }
 
-        if (info != null) {
-            environment.assignAt(info.distance, info.index, value);
+    Object assign(Expr.Assign expr, Object value) {
+        if (expr.distance >= 0) {
+            environment.assignAt(expr.distance, expr.index, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -294,8 +618,86 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
+        if (expr.form != Superinstruction.NONE && fuse) {
+            Expr.Variable local = (Expr.Variable) expr.left;
+            Object left = environment.getAt(local.distance, local.index);
+            Object right;
+            if (expr.form == Superinstruction.LOCAL_LITERAL) {
+                right = ((Expr.Literal) expr.right).value;
+            } else {
+                Expr.Variable other = (Expr.Variable) expr.right;
+                right = environment.getAt(other.distance, other.index);
+            }
+            return binary(expr, left, right);
+        }
+        // the profiler wants every operand, so it always takes the checked path
+        if (expr.left.type == LoxType.NUMBER && expr.right.type == LoxType.NUMBER
+                && profiler == null) {
+            switch (expr.operator.type) {
+                case GREATER:
+                    return number(expr.left) > number(expr.right);
+                case GREATER_EQUAL:
+                    return number(expr.left) >= number(expr.right);
+                case LESS:
+                    return number(expr.left) < number(expr.right);
+                case LESS_EQUAL:
+                    return number(expr.left) <= number(expr.right);
+                case MINUS:
+                case PLUS:
+                case SLASH:
+                case STAR:
+                    return arithmetic(expr);
+                default:
+                    break;
+            }
+        }
         Object left = evaluate(expr.left);
-        Object right = evaluate(expr.right);
+        return binary(expr, left, evaluate(expr.right));
+    }
+
+    // Evaluates an expression TypeInference proved is a number. Arithmetic
+    // on proven operands stays in doubles all the way down, only the
+    // outermost result gets boxed.
+    private double number(Expr expr) {
+        if (expr.hoisted == null && !expr.deep) {
+            if (expr instanceof Expr.Binary) {
+                Expr.Binary binary = (Expr.Binary) expr;
+                if (binary.left.type == LoxType.NUMBER && binary.right.type == LoxType.NUMBER
+                        && binary.type == LoxType.NUMBER) {
+                    return arithmetic(binary);
+                }
+            } else if (expr instanceof Expr.Grouping) {
+                return number(((Expr.Grouping) expr).expression);
+            } else if (expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) expr;
+                if (unary.operator.type == TokenType.MINUS && unary.right.type == LoxType.NUMBER) {
+                    return -number(unary.right);
+                }
+            }
+        }
+        return (double) evaluate(expr);
+    }
+
+    // + - * / with both operands proven numbers
+    private double arithmetic(Expr.Binary expr) {
+        double left = number(expr.left);
+        double right = number(expr.right);
+        switch (expr.operator.type) {
+            case MINUS:
+                return left - right;
+            case PLUS:
+                return left + right;
+            case SLASH:
+                return left / right;
+            default:
+                return left * right;
+        }
+    }
+
+    Object binary(Expr.Binary expr, Object left, Object right) {
+        if (profiler != null) {
+            profiler.recordOperands(expr, left, right);
+        }
 
         switch (expr.operator.type) {
             case GREATER:
@@ -311,10 +713,8 @@ class Interpreter implements Expr.Visitor<Object>,
                 checkNumberOperands(expr.operator, left, right);
                 return (double) left <= (double) right;
             case BANG_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
                 return !isEqual(left, right);
-            case EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+            case EQUAL_EQUAL:
                 return isEqual(left, right);
             case MINUS:
                 checkNumberOperands(expr.operator, left, right);
@@ -325,13 +725,15 @@ class Interpreter implements Expr.Visitor<Object>,
                     return (double) left + (double) right;
                 }
 
-                if (left instanceof String && right instanceof String) {
-                    return (String) left + (String) right;
+                if (left instanceof CharSequence && right instanceof CharSequence) {
+                    return ConcatString.concat((CharSequence) left, (CharSequence) right);
                 }
                 throw new RuntimeError(expr.operator, "Operands must be two numbers or two strings.");
             case SLASH:
+                checkNumberOperands(expr.operator, left, right);
                 return (double) left / (double) right;
             case STAR:
+                checkNumberOperands(expr.operator, left, right);
                 return (double) left * (double) right;
 
         }
@@ -342,14 +744,65 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        if (expr.inline != null) {
+            Object callee = globals.get(((Expr.Variable) expr.callee).name);
+            if (callee instanceof LoxFunction
+                    && ((LoxFunction) callee).isDeclaredBy(expr.inline.function)) {
+                if (expr.inline.prepare(this, expr)) {
+                    return callInlined(expr, (LoxFunction) callee);
+                }
+                // not worth it, stop checking
+                expr.inline = null;
+            }
+            return call(expr, callee, evaluateArguments(expr));
+        }
 
-        List<Object> arguements = new ArrayList<>();
-        for (Expr arguement : expr.arguments) {
+        Object callee;
+        if (expr.callee instanceof Expr.Get) {
+            // obj.method(...): call the method with the instance in its frame
+            // rather than allocating a bound LoxFunction first
+            Expr.Get get = (Expr.Get) expr.callee;
+            Object object = evaluate(get.object);
+            LoxFunction method = findInvokedMethod(get, object);
+            if (method != null) {
+                return callMethod(expr, method, (LoxInstance) object);
+            }
+            callee = getProperty(get, object);
+        } else if (expr.callee instanceof Expr.Super) {
+            Expr.Super superExpr = (Expr.Super) expr.callee;
+            LoxFunction method = findSuperMethod(superExpr);
+            if (method != null) {
+                return callMethod(expr, method, superReceiver(superExpr));
+            }
+            callee = evaluate(expr.callee);
+        } else {
+            callee = evaluate(expr.callee);
+        }
 
-            arguements.add(evaluate(arguement));
+        return call(expr, callee, evaluateArguments(expr));
+    }
+
+    // The global still holds the function the call was matched to
+    private Object callInlined(Expr.Call expr, LoxFunction function) {
+        InlineSite site = expr.inline;
+        if (site.substituted != null) {
+            return evaluate(site.substituted);
         }
 
+        Environment frame = new Environment(function.closure);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            frame.define(function.params.get(i).lexeme, evaluate(expr.arguments.get(i)));
+        }
+        Environment previous = environment;
+        try {
+            environment = frame;
+            return evaluate(site.body);
+        } finally {
+            environment = previous;
+        }
+    }
+
+    Object call(Expr.Call expr, Object callee, List<Object> arguements) {
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expr.paren,
                     "Can only call functions and classes.");
@@ -361,6 +814,72 @@ class Interpreter implements Expr.Visitor<Object>,
                     function.arity() + " arguements, but got " +
                     arguements.size() + ".");
         }
-        return function.call(this, arguements);
+        try {
+            return function.call(this, arguements);
+        } catch (NativeError error) {
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    // The method obj.name(...) would call, or null when it is something else
+    // (not an instance, or a field, which shadows methods)
+    LoxFunction findInvokedMethod(Expr.Get get, Object object) {
+        if (!(object instanceof LoxInstance)) {
+            return null;
+        }
+        LoxInstance instance = (LoxInstance) object;
+
+        PropertyCache cache = get.cache;
+        if (cache != null && cache.shape == instance.shape) {
+            if (cache.method == null) {
+                return null;
+            }
+            if (cache.klass == instance.klass) {
+                return cache.method;
+            }
+        }
+
+        if (instance.shape.slot(get.name.lexeme) >= 0) {
+            return null;
+        }
+        LoxFunction method = instance.klass.findMethod(get.name.lexeme);
+        if (method != null) {
+            get.cache = new PropertyCache(instance.shape, instance.klass, method);
+        }
+        return method;
+    }
+
+    // super.name(...), null when the superclass has no such method
+    LoxFunction findSuperMethod(Expr.Super expr) {
+        LoxClass superclass = (LoxClass) environment.getAt(expr.distance, expr.index);
+        return superclass.findMethod(expr.method.lexeme);
+    }
+
+    // `super` is defined just outside the method's frame, which holds `this`
+    // in slot 0
+    LoxInstance superReceiver(Expr.Super expr) {
+        return (LoxInstance) environment.getAt(expr.distance - 1, 0);
+    }
+
+    private Object callMethod(Expr.Call expr, LoxFunction method, LoxInstance instance) {
+        return callMethod(expr, method, instance, evaluateArguments(expr));
+    }
+
+    Object callMethod(Expr.Call expr, LoxFunction method, LoxInstance instance,
+            List<Object> arguements) {
+        if (arguements.size() != method.arity()) {
+            throw new RuntimeError(expr.paren, "Expected " +
+                    method.arity() + " arguements, but got " +
+                    arguements.size() + ".");
+        }
+        return method.callMethod(this, instance, arguements);
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguements = new ArrayList<>();
+        for (Expr arguement : expr.arguments) {
+            arguements.add(evaluate(arguement));
+        }
+        return arguements;
     }
 }
\ No newline at end of file
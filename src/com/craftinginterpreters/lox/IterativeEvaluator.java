@@ -0,0 +1,249 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Evaluates expressions the parser marked deep (nested past
+// Parser.DEEP_NESTING), e.g. machine generated formulas with tens of thousands
+// of operators, which would overflow the Java stack in the recursive
+// evaluate/visit path.
+//
+// Pending nodes and intermediate values are kept on explicit stacks. The
+// operations themselves are the interpreter's (binary, getProperty, call...),
+// so results, evaluation order and errors are the same as the recursive path.
+// Calling a function still runs its body recursively as usual, only the
+// expression nesting is flattened.
+class IterativeEvaluator {
+    private final Interpreter interpreter;
+    private final Profiler profiler;
+    private final List<Frame> frames = new ArrayList<>();
+    private final List<Object> values = new ArrayList<>();
+
+    private static class Frame {
+        final Expr expr;
+        // how many children have been pushed so far
+        int state = 0;
+        // Call: the callee value, or the receiver of an obj.method(...) call
+        Object callee;
+        LoxFunction method;
+
+        Frame(Expr expr) {
+            this.expr = expr;
+        }
+    }
+
+    IterativeEvaluator(Interpreter interpreter, Profiler profiler) {
+        this.interpreter = interpreter;
+        this.profiler = profiler;
+    }
+
+    Object evaluate(Expr root) {
+        push(root);
+        while (!frames.isEmpty()) {
+            Frame frame = frames.get(frames.size() - 1);
+            if (frame.expr instanceof Expr.Binary) {
+                binary(frame, (Expr.Binary) frame.expr);
+            } else if (frame.expr instanceof Expr.Grouping) {
+                if (frame.state++ == 0) {
+                    push(((Expr.Grouping) frame.expr).expression);
+                } else {
+                    // the inner value is already on the value stack
+                    frames.remove(frames.size() - 1);
+                }
+            } else if (frame.expr instanceof Expr.Unary) {
+                Expr.Unary unary = (Expr.Unary) frame.expr;
+                if (frame.state++ == 0) {
+                    push(unary.right);
+                } else {
+                    finish(interpreter.unary(unary, pop()));
+                }
+            } else if (frame.expr instanceof Expr.Logical) {
+                logical(frame, (Expr.Logical) frame.expr);
+            } else if (frame.expr instanceof Expr.Call) {
+                call(frame, (Expr.Call) frame.expr);
+            } else if (frame.expr instanceof Expr.Assign) {
+                Expr.Assign assign = (Expr.Assign) frame.expr;
+                if (frame.state++ == 0) {
+                    push(assign.value);
+                } else {
+                    finish(interpreter.assign(assign, pop()));
+                }
+            } else if (frame.expr instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) frame.expr;
+                if (frame.state++ == 0) {
+                    push(get.object);
+                } else {
+                    finish(interpreter.getProperty(get, pop()));
+                }
+            } else if (frame.expr instanceof Expr.Set) {
+                set(frame, (Expr.Set) frame.expr);
+            } else if (frame.expr instanceof Expr.Index) {
+                index(frame, (Expr.Index) frame.expr);
+            } else if (frame.expr instanceof Expr.IndexSet) {
+                indexSet(frame, (Expr.IndexSet) frame.expr);
+            } else {
+                // literals, variables, this, super and function expressions
+                // have no subexpressions
+                finish(frame.expr.accept(interpreter));
+            }
+        }
+        return pop();
+    }
+
+    private void binary(Frame frame, Expr.Binary expr) {
+        switch (frame.state++) {
+            case 0:
+                push(expr.left);
+                break;
+            case 1:
+                push(expr.right);
+                break;
+            default:
+                Object right = pop();
+                Object left = pop();
+                finish(interpreter.binary(expr, left, right));
+        }
+    }
+
+    private void logical(Frame frame, Expr.Logical expr) {
+        switch (frame.state++) {
+            case 0:
+                push(expr.left);
+                break;
+            case 1:
+                Object left = pop();
+                boolean shortCircuit = expr.operator.type == TokenType.OR
+                        ? interpreter.isTruthy(left)
+                        : !interpreter.isTruthy(left);
+                if (shortCircuit) {
+                    finish(left);
+                } else {
+                    push(expr.right);
+                }
+                break;
+            default:
+                // the right operand's value is the result
+                frames.remove(frames.size() - 1);
+        }
+    }
+
+    // Mirrors Interpreter.visitCallExpr: the callee (or the receiver of a
+    // method call) first, then the arguments left to right, then the call
+    private void call(Frame frame, Expr.Call expr) {
+        int state = frame.state++;
+        if (state == 0) {
+            if (expr.callee instanceof Expr.Get) {
+                push(((Expr.Get) expr.callee).object);
+            } else if (expr.callee instanceof Expr.Super) {
+                Expr.Super superExpr = (Expr.Super) expr.callee;
+                frame.method = interpreter.findSuperMethod(superExpr);
+                frame.callee = frame.method != null
+                        ? interpreter.superReceiver(superExpr)
+                        : superExpr.accept(interpreter);
+                frame.state++;
+                pushArgument(frame, expr, 0);
+            } else {
+                push(expr.callee);
+            }
+            return;
+        }
+
+        if (state == 1) {
+            Object callee = pop();
+            if (expr.callee instanceof Expr.Get) {
+                Expr.Get get = (Expr.Get) expr.callee;
+                frame.method = interpreter.findInvokedMethod(get, callee);
+                if (frame.method == null) {
+                    callee = interpreter.getProperty(get, callee);
+                }
+            }
+            frame.callee = callee;
+        }
+
+        pushArgument(frame, expr, state - 1);
+    }
+
+    private void pushArgument(Frame frame, Expr.Call expr, int argument) {
+        if (argument < expr.arguments.size()) {
+            push(expr.arguments.get(argument));
+            return;
+        }
+
+        Object[] arguments = new Object[expr.arguments.size()];
+        for (int i = arguments.length - 1; i >= 0; i--) {
+            arguments[i] = pop();
+        }
+        if (frame.method != null) {
+            finish(interpreter.callMethod(expr, frame.method, (LoxInstance) frame.callee,
+                    new ArrayList<>(Arrays.asList(arguments))));
+        } else {
+            finish(interpreter.call(expr, frame.callee, new ArrayList<>(Arrays.asList(arguments))));
+        }
+    }
+
+    private void set(Frame frame, Expr.Set expr) {
+        switch (frame.state++) {
+            case 0:
+                push(expr.object);
+                break;
+            case 1:
+                frame.callee = interpreter.setTarget(expr, pop());
+                push(expr.value);
+                break;
+            default:
+                finish(interpreter.setProperty(expr, (LoxInstance) frame.callee, pop()));
+        }
+    }
+
+    private void index(Frame frame, Expr.Index expr) {
+        switch (frame.state++) {
+            case 0:
+                push(expr.object);
+                break;
+            case 1:
+                push(expr.index);
+                break;
+            default:
+                Object index = pop();
+                Object object = pop();
+                finish(interpreter.index(expr, object, index));
+        }
+    }
+
+    private void indexSet(Frame frame, Expr.IndexSet expr) {
+        switch (frame.state++) {
+            case 0:
+                push(expr.object);
+                break;
+            case 1:
+                push(expr.index);
+                break;
+            case 2:
+                push(expr.value);
+                break;
+            default:
+                Object value = pop();
+                Object index = pop();
+                Object object = pop();
+                finish(interpreter.indexSet(expr, object, index, value));
+        }
+    }
+
+    private void push(Expr expr) {
+        if (profiler != null) {
+            profiler.count(expr);
+        }
+        frames.add(new Frame(expr));
+    }
+
+    // pops the finished frame and leaves its value for the parent
+    private void finish(Object value) {
+        frames.remove(frames.size() - 1);
+        values.add(value);
+    }
+
+    private Object pop() {
+        return values.remove(values.size() - 1);
+    }
+}
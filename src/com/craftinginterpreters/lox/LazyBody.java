@@ -0,0 +1,87 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Body of a top level function that hasn't been parsed yet.
+// The parser only checks that the braces match and remembers where the body's
+// tokens are, parsing and resolving happen on the first call. Large scripts
+// that declare many functions but call only a few skip building and resolving
+// the rest.
+//
+// Syntax and resolver errors inside the body are reported when it's first
+// called, run with --eager-parse to have them all reported up front instead.
+// Either way they are static errors: the call fails and the script still
+// exits with status 65, just after running up to that call.
+class LazyBody {
+    private final List<Token> tokens;
+    // from the opening '{' to the closing '}', inclusive
+    private final int start;
+    private final int end;
+    final Token name;
+    final List<Token> params;
+    private List<Stmt> body = null;
+    // set once parsing or resolving the body reported errors, later calls
+    // fail without parsing it, and printing them, again
+    private boolean failed = false;
+
+    LazyBody(List<Token> tokens, int start, int end, Token name, List<Token> params) {
+        this.tokens = tokens;
+        this.start = start;
+        this.end = end;
+        this.name = name;
+        this.params = params;
+    }
+
+    // The body's tokens, '{' through '}'
+    List<Token> tokens() {
+        return tokens.subList(start, end + 1);
+    }
+
+    List<Stmt> body(Interpreter interpreter) {
+        // one body at a time, parsing and resolving report through the
+        // shared Lox.hadError
+        synchronized (LazyBody.class) {
+            return parse(interpreter);
+        }
+    }
+
+    private List<Stmt> parse(Interpreter interpreter) {
+        if (body != null) {
+            return body;
+        }
+        if (failed) {
+            throw hasErrors();
+        }
+
+        List<Token> bodyTokens = new ArrayList<>(tokens.subList(start, end + 1));
+        Token last = tokens.get(end);
+        bodyTokens.add(new Token(TokenType.EOF, "", null, last.line));
+
+        // errors are printed straight to stderr, keep them after earlier output
+        interpreter.flushOutput();
+
+        boolean hadError = Lox.hadError;
+        Lox.hadError = false;
+        List<Stmt> statements = new Parser(bodyTokens).functionBody();
+        Stmt.Function declaration = new Stmt.Function(name, params, statements);
+        if (!Lox.hadError) {
+            new Resolver().resolveTopLevel(declaration);
+        }
+        failed = Lox.hadError;
+        Lox.hadError = hadError || failed;
+
+        if (failed) {
+            // the errors have been printed already, hadError stays set so
+            // the exit status is 65 rather than 70
+            throw hasErrors();
+        }
+        interpreter.optimizeBody(declaration);
+        body = statements;
+        return body;
+    }
+
+    private RuntimeError hasErrors() {
+        return new RuntimeError(name, "Function '" + name.lexeme + "' has errors in its body.");
+    }
+}
@@ -0,0 +1,284 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+// Loop invariant code motion, run after the Resolver.
+// Finds the expressions in a while (or desugared for) loop that can't change
+// value while it runs, e.g. `n * 2` in `i < n * 2` or a global read in the
+// body, and marks them Hoisted: each run of the loop evaluates them once and
+// reuses the value.
+//
+// The value is computed where the expression first runs rather than before the
+// loop, so one behind an `and`, or in a branch that never runs, doesn't run
+// early or raise an error that wouldn't have happened.
+//
+// An expression is invariant when everything it reads is:
+//  - a local declared outside the loop, that the loop doesn't assign, and that
+//    no closure assigns if the loop makes calls
+//  - a global, when the loop neither assigns it nor makes calls
+//  - a field or element, when the loop has no calls or property/index sets
+// Calls, assignments and function expressions never are.
+//
+// All of that only holds while the script is the one thread changing
+// variables. While a spawned task is running (see TaskNatives) the
+// interpreter evaluates Hoisted expressions every time, as if they weren't
+// marked.
+class LoopOptimizer {
+    private static class Scope {
+        // the block, function body or class that opens the scope, the same on
+        // every walk
+        final Object owner;
+        // the function nesting level the scope belongs to
+        final int function;
+
+        Scope(Object owner, int function) {
+            this.owner = owner;
+            this.function = function;
+        }
+    }
+
+    // A local variable: the scope that declared it and its slot
+    private static class Slot {
+        final Object scope;
+        final int index;
+
+        Slot(Scope scope, int index) {
+            this.scope = scope.owner;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Slot && ((Slot) other).scope == scope
+                    && ((Slot) other).index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(scope) * 31 + index;
+        }
+    }
+
+    // What a loop's condition and body do
+    private class Effects {
+        final int base = scopes.size();
+        final int loopFunction = function;
+        final Set<Slot> assigned = new HashSet<>();
+        final Set<String> assignedGlobals = new HashSet<>();
+        boolean calls = false;
+        boolean sets = false;
+
+        void record(Expr expr) {
+            if (expr instanceof Expr.Assign) {
+                Expr.Assign assign = (Expr.Assign) expr;
+                if (assign.distance == -1) {
+                    assignedGlobals.add(assign.name.lexeme);
+                } else {
+                    assigned.add(slot(assign.distance, assign.index));
+                }
+            } else if (function == loopFunction) {
+                // nested functions only run through a call
+                if (expr instanceof Expr.Call) {
+                    calls = true;
+                } else if (expr instanceof Expr.Set || expr instanceof Expr.IndexSet) {
+                    sets = true;
+                }
+            }
+        }
+    }
+
+    private final List<Scope> scopes = new ArrayList<>();
+    private int function = 0;
+    // locals assigned from a function nested inside the one declaring them
+    private final Set<Slot> capturedAssignments = new HashSet<>();
+    // nodes already inside a hoisted expression
+    private final Set<Expr> covered = new HashSet<>();
+
+    // A script's top level statements
+    void optimize(List<Stmt> statements) {
+        try {
+            new Walk(this::recordCapture, null).walk(statements);
+            new Walk(LoopOptimizer::checkDepth, this::optimizeLoop).walk(statements);
+        } catch (TooDeep e) {
+            // left unoptimized
+        }
+    }
+
+    // A top level function body parsed on its first call, see LazyBody
+    void optimize(Stmt.Function function) {
+        beginFunction(function.body);
+        try {
+            optimize(function.body);
+        } finally {
+            endFunction();
+        }
+    }
+
+    private void optimizeLoop(Stmt.While loop) {
+        // anything can change while a generator waits at a yield, and its
+        // loops are run by LoxGenerator, which keeps no cached values
+        if (loop.yields) {
+            return;
+        }
+        Effects effects = new Effects();
+        Walk record = new Walk(effects::record, null);
+        record.walk(loop.condition);
+        record.walk(loop.body);
+
+        Consumer<Expr> hoist = expr -> {
+            if (function == effects.loopFunction && !covered.contains(expr)
+                    && worthHoisting(expr) && isInvariant(expr, effects)) {
+                expr.hoisted = new Hoisted(loop, loop.invariants++);
+                cover(expr);
+            }
+        };
+        Walk hoisting = new Walk(hoist, null);
+        hoisting.walk(loop.condition);
+        hoisting.walk(loop.body);
+    }
+
+    private static boolean worthHoisting(Expr expr) {
+        if (expr instanceof Expr.Grouping) {
+            return worthHoisting(((Expr.Grouping) expr).expression);
+        }
+        if (expr instanceof Expr.Variable) {
+            // a local read costs no more than the cached value
+            return ((Expr.Variable) expr).distance == -1;
+        }
+        return expr instanceof Expr.Binary || expr instanceof Expr.Unary
+                || expr instanceof Expr.Logical || expr instanceof Expr.Get
+                || expr instanceof Expr.Index;
+    }
+
+    private boolean isInvariant(Expr expr, Effects effects) {
+        if (expr instanceof Expr.Literal) {
+            return true;
+        }
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            if (variable.distance == -1) {
+                return !effects.calls && !effects.assignedGlobals.contains(variable.name.lexeme);
+            }
+            return isInvariantLocal(variable.distance, variable.index, effects);
+        }
+        if (expr instanceof Expr.This) {
+            Expr.This thisExpr = (Expr.This) expr;
+            return isInvariantLocal(thisExpr.distance, thisExpr.index, effects);
+        }
+        if (expr instanceof Expr.Get || expr instanceof Expr.Index) {
+            if (effects.calls || effects.sets) {
+                return false;
+            }
+        } else if (!(expr instanceof Expr.Binary || expr instanceof Expr.Unary
+                || expr instanceof Expr.Logical || expr instanceof Expr.Grouping)) {
+            return false;
+        }
+        for (Expr child : TreeWalker.children(expr)) {
+            if (!isInvariant(child, effects)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean isInvariantLocal(int distance, int index, Effects effects) {
+        int declaredIn = scopes.size() - 1 - distance;
+        if (declaredIn >= effects.base) {
+            // declared inside the loop, a new variable each time round
+            return false;
+        }
+        Slot slot = new Slot(scopes.get(declaredIn), index);
+        return !effects.assigned.contains(slot)
+                && !(effects.calls && capturedAssignments.contains(slot));
+    }
+
+    private void cover(Expr expr) {
+        covered.add(expr);
+        for (Expr child : TreeWalker.children(expr)) {
+            cover(child);
+        }
+    }
+
+    private void recordCapture(Expr expr) {
+        checkDepth(expr);
+        if (expr instanceof Expr.Assign && ((Expr.Assign) expr).distance >= 0) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            Slot slot = slot(assign.distance, assign.index);
+            if (scopes.get(scopes.size() - 1 - assign.distance).function < function) {
+                capturedAssignments.add(slot);
+            }
+        }
+    }
+
+    private static void checkDepth(Expr expr) {
+        if (expr.deep) {
+            throw new TooDeep();
+        }
+    }
+
+    private Slot slot(int distance, int index) {
+        return new Slot(scopes.get(scopes.size() - 1 - distance), index);
+    }
+
+    // Visits every expression under a node, including the bodies of nested
+    // functions, with the scopes set up the way the Resolver had them, and
+    // every loop before its condition and body
+    private class Walk extends TreeWalker {
+        final Consumer<Expr> expressions;
+        final Consumer<Stmt.While> loops;
+
+        Walk(Consumer<Expr> expressions, Consumer<Stmt.While> loops) {
+            this.expressions = expressions;
+            this.loops = loops;
+        }
+
+        @Override
+        void expression(Expr expr) {
+            if (expressions != null) {
+                expressions.accept(expr);
+            }
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While loop) {
+            if (loops != null) {
+                loops.accept(loop);
+            }
+            return super.visitWhileStmt(loop);
+        }
+
+        @Override
+        void beginScope(Object owner) {
+            scopes.add(new Scope(owner, function));
+        }
+
+        @Override
+        void endScope() {
+            scopes.remove(scopes.size() - 1);
+        }
+
+        @Override
+        void beginFunction(List<Stmt> body) {
+            LoopOptimizer.this.beginFunction(body);
+        }
+
+        @Override
+        void endFunction() {
+            LoopOptimizer.this.endFunction();
+        }
+    }
+
+    private void beginFunction(List<Stmt> body) {
+        function++;
+        scopes.add(new Scope(body, function));
+    }
+
+    private void endFunction() {
+        scopes.remove(scopes.size() - 1);
+        function--;
+    }
+}
@@ -10,75 +10,169 @@ import java.util.List;
 
 public class Lox {
   private static final Interpreter interpreter = new Interpreter();
-  static boolean hadError = false;
-  static boolean hadRuntimeError = false;
+  // set from a lazily parsed body too, which can be on a spawned task
+  static volatile boolean hadError = false;
+  // set from spawned tasks too, see TaskNatives
+  static volatile boolean hadRuntimeError = false;
+  // parse top level function bodies on first call, see LazyBody
+  private static boolean lazyBodies = true;
+  // inline calls to small global functions, see Inliner
+  private static boolean inline = true;
+  // cache loop invariant expressions, see LoopOptimizer
+  private static boolean hoistLoops = true;
+  // skip operand checks the types make unnecessary, see TypeInference
+  private static boolean inferTypes = true;
 
   public static void main(String[] args) throws IOException {
-    if (args.length > 1) {
-      System.out.println("Usage: jlox [script]");
-      System.exit(64);
-    } else if (args.length == 1) {
-      runFile(args[0]);
+    String script = null;
+    String outputPath = null;
+    String snapshot = null;
+    String saveSnapshot = null;
+    int flushThreshold = OutputSink.DEFAULT_THRESHOLD;
+    for (String arg : args) {
+      if (arg.equals("--profile")) {
+        interpreter.enableProfiling();
+      } else if (arg.equals("--eager-parse")) {
+        lazyBodies = false;
+      } else if (arg.equals("--no-inline")) {
+        inline = false;
+      } else if (arg.equals("--no-hoist")) {
+        hoistLoops = false;
+      } else if (arg.equals("--no-types")) {
+        inferTypes = false;
+      } else if (arg.equals("--no-fuse")) {
+        interpreter.disableFusion();
+      } else if (arg.startsWith("--snapshot=")) {
+        snapshot = arg.substring("--snapshot=".length());
+      } else if (arg.startsWith("--save-snapshot=")) {
+        saveSnapshot = arg.substring("--save-snapshot=".length());
+      } else if (arg.startsWith("--out=")) {
+        outputPath = arg.substring("--out=".length());
+      } else if (arg.startsWith("--flush-threshold=")) {
+        try {
+          flushThreshold = Integer.parseInt(arg.substring("--flush-threshold=".length()));
+        } catch (NumberFormatException e) {
+          usage();
+        }
+      } else if (script == null && !arg.startsWith("--")) {
+        script = arg;
+      } else {
+        usage();
+      }
+    }
+
+    if (outputPath != null) {
+      interpreter.setOutput(OutputSink.file(outputPath, flushThreshold));
+    } else if (flushThreshold != OutputSink.DEFAULT_THRESHOLD) {
+      interpreter.setOutput(OutputSink.stdout(flushThreshold));
+    }
+
+    if (snapshot != null) {
+      try {
+        Snapshot.restore(interpreter, snapshot);
+      } catch (IOException e) {
+        System.err.println("Could not load snapshot " + snapshot + ": " + e.getMessage());
+        exit(66);
+      }
+    }
+
+    if (saveSnapshot != null) {
+      // run the prelude, then write out the globals it left behind
+      if (script == null) {
+        usage();
+      }
+      runFile(script);
+      try {
+        Snapshot.save(interpreter, saveSnapshot);
+      } catch (IOException e) {
+        System.err.println("Could not save snapshot " + saveSnapshot + ": " + e.getMessage());
+        exit(74);
+      }
+    } else if (script != null) {
+      runFile(script);
     } else {
       runPrompt();
     }
+    exit(0);
+  }
+
+  private static void usage() {
+    System.out.println("Usage: jlox [--profile] [--eager-parse] [--no-inline] [--no-hoist]"
+        + " [--no-types] [--no-fuse] [--snapshot=image] [--save-snapshot=image]"
+        + " [--out=file] [--flush-threshold=chars] [script]");
+    System.out.println("  --eager-parse  parse every function body before running. By default");
+    System.out.println("                 a top level function's body is parsed on its first call,");
+    System.out.println("                 so the script runs up to that call before a syntax error");
+    System.out.println("                 in the body is reported (still with exit status 65).");
+    System.exit(64);
+  }
+
+  // Every way out of a run goes through here so buffered output and the
+  // profile get written even when the script failed.
+  private static void exit(int status) {
+    interpreter.flushOutput();
+    interpreter.reportProfile(System.err);
+    System.exit(status);
   }
 
   private static void runFile(String path) throws IOException {
     byte[] bytes = Files.readAllBytes(Paths.get(path));
-    run(new String(bytes, Charset.defaultCharset()), false);
+    run(new String(bytes, Charset.defaultCharset()));
 
     if (hadError) {
-      System.exit(65);
+      exit(65);
     }
     if (hadRuntimeError) {
-      System.exit(70);
+      exit(70);
     }
   }
 
   private static void runPrompt() throws IOException {
     InputStreamReader input = new InputStreamReader(System.in);
     BufferedReader reader = new BufferedReader(input);
+    ReplSession session = new ReplSession(interpreter, lazyBodies);
 
     for (;;) {
-      System.out.print("> ");
+      interpreter.flushOutput();
+      System.out.print(session.needsMore() ? "... " : "> ");
       String line = reader.readLine();
       if (line == null) {
         break;
       }
-      run(line, true);
-      hadError = false;
+      session.line(line);
     }
   }
 
-  private static void run(String source, boolean replMode) {
+  private static void run(String source) {
     Scanner scanner = new Scanner(source);
     List<Token> tokens = scanner.scanTokens();
 
-    Parser parser = new Parser(tokens);
-
-    if (replMode) {
-      Expr expression = parser.tryParseExpressExpr();
-
-      if (expression != null && !hadError) {
-        Object value = interpreter.evaluate(expression);
-        System.out.println(interpreter.stringify(value));
-        return;
-      }
-    }
-
+    Parser parser = new Parser(tokens, lazyBodies);
     List<Stmt> statements = parser.parse();
 
     if (hadError) {
       return;
     }
-    Resolver resolver = new Resolver(interpreter);
+    Resolver resolver = new Resolver();
     resolver.resolve(statements);
 
     if (hadError) {
       return;
     }
 
+    if (inline) {
+      Inliner inliner = new Inliner();
+      inliner.inline(statements);
+      interpreter.setInliner(inliner);
+    }
+    if (hoistLoops) {
+      new LoopOptimizer().optimize(statements);
+      interpreter.setHoistLoops(true);
+    }
+    if (inferTypes) {
+      new TypeInference().infer(statements);
+      interpreter.setInferTypes(true);
+    }
     interpreter.interpret(statements);
 
   }
@@ -101,9 +195,19 @@ public class Lox {
     }
   }
 
-  static void runtimeError(RuntimeError error) {
+  static synchronized void runtimeError(RuntimeError error) {
+    // keep the error after whatever the script printed before it
+    interpreter.flushOutput();
     System.err.println(error.getMessage() +
         "\n[line " + error.token.line + "]");
     hadRuntimeError = true;
   }
+
+  // A task that failed with something other than a RuntimeError, which has
+  // no line to point at
+  static synchronized void taskError(LoxTask task, String message) {
+    interpreter.flushOutput();
+    System.err.println(message + "\n[" + task + "]");
+    hadRuntimeError = true;
+  }
 }
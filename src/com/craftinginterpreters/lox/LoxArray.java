@@ -0,0 +1,130 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// Growable Lox array.
+// While every element is a number the storage is a double[], so numeric data
+// doesn't cost a boxed Double per element. The first non-number stored widens
+// it to an Object[] for good.
+class LoxArray {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private double[] numbers = new double[INITIAL_CAPACITY];
+    // null until widened
+    private Object[] objects = null;
+    private int size = 0;
+
+    int size() {
+        return size;
+    }
+
+    Object get(int index) {
+        checkIndex(index);
+        if (objects != null) {
+            return objects[index];
+        }
+        return numbers[index];
+    }
+
+    void set(int index, Object value) {
+        checkIndex(index);
+        store(index, value);
+    }
+
+    void push(Object value) {
+        int capacity = objects != null ? objects.length : numbers.length;
+        if (size == capacity) {
+            grow(capacity * 2);
+        }
+        store(size++, value);
+    }
+
+    private void store(int index, Object value) {
+        if (objects == null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+            widen();
+        }
+        objects[index] = value;
+    }
+
+    private void widen() {
+        objects = new Object[numbers.length];
+        for (int i = 0; i < size; i++) {
+            objects[i] = numbers[i];
+        }
+        numbers = null;
+    }
+
+    private void grow(int capacity) {
+        if (objects != null) {
+            objects = Arrays.copyOf(objects, capacity);
+        } else {
+            numbers = Arrays.copyOf(numbers, capacity);
+        }
+    }
+
+    private void checkIndex(int index) {
+        if (index >= size) {
+            throw new NativeError("Array index " + index + " out of range for length " + size
+                    + ".");
+        }
+    }
+
+    // Lox numbers are doubles, an index has to be a whole non-negative one
+    static int index(Object value) {
+        if (!(value instanceof Double)) {
+            throw new NativeError("Array index must be a number.");
+        }
+        double index = (double) value;
+        if (index < 0 || index != Math.floor(index) || index > Integer.MAX_VALUE) {
+            throw new NativeError("Array index must be a non-negative integer.");
+        }
+        return (int) index;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        appendTo(text, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return text.toString();
+    }
+
+    // printing holds the arrays and maps already being printed further up, an
+    // array that holds itself shows as [...] there instead of recursing for good
+    void appendTo(StringBuilder text, Set<Object> printing) {
+        if (!printing.add(this)) {
+            text.append("[...]");
+            return;
+        }
+        text.append("[");
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                text.append(", ");
+            }
+            append(text, objects != null ? objects[i] : (Object) numbers[i], printing);
+        }
+        text.append("]");
+        printing.remove(this);
+    }
+
+    // An element or map entry the way print shows it
+    static void append(StringBuilder text, Object value, Set<Object> printing) {
+        if (value == null) {
+            text.append("nil");
+        } else if (value instanceof Double) {
+            NumberFormatter.append(text, (double) value);
+        } else if (value instanceof LoxArray) {
+            ((LoxArray) value).appendTo(text, printing);
+        } else if (value instanceof LoxMap) {
+            ((LoxMap) value).appendTo(text, printing);
+        } else {
+            text.append(value);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+
+// Fixed length array of numbers kept outside the Java heap, see BufferNatives.
+// A LoxArray of numbers already avoids boxing, but it's still one big heap
+// array the collector has to copy around and that counts against -Xmx. A
+// buffer is a direct ByteBuffer instead, freed when the LoxBuffer is.
+//
+// Direct buffers top out at 2GB, i.e. 268 million numbers, and together
+// can't take more than -XX:MaxDirectMemorySize (by default the same as
+// -Xmx). The Foreign Memory API has no such limits but is still incubating
+// in Java 17.
+class LoxBuffer {
+    static final int MAX_LENGTH = Integer.MAX_VALUE / Double.BYTES;
+    // below this a range is put in order by insertion sort
+    private static final int INSERTION_SORT_LENGTH = 16;
+
+    private final DoubleBuffer numbers;
+
+    LoxBuffer(int length) {
+        ByteBuffer bytes;
+        try {
+            bytes = ByteBuffer.allocateDirect(length * Double.BYTES);
+        } catch (OutOfMemoryError e) {
+            throw new NativeError("Not enough direct memory for a buffer of " + length
+                    + " numbers, see -XX:MaxDirectMemorySize.");
+        }
+        numbers = bytes.order(ByteOrder.nativeOrder()).asDoubleBuffer();
+    }
+
+    int length() {
+        return numbers.capacity();
+    }
+
+    double get(int index) {
+        checkIndex(index);
+        return numbers.get(index);
+    }
+
+    void set(int index, double value) {
+        checkIndex(index);
+        numbers.put(index, value);
+    }
+
+    double sum() {
+        double sum = 0;
+        for (int i = 0; i < numbers.capacity(); i++) {
+            sum += numbers.get(i);
+        }
+        return sum;
+    }
+
+    void fill(double value) {
+        for (int i = 0; i < numbers.capacity(); i++) {
+            numbers.put(i, value);
+        }
+    }
+
+    // Copies all of this buffer to the start of target
+    void copyTo(LoxBuffer target) {
+        if (target.length() < length()) {
+            throw new NativeError("Target buffer is shorter than the source.");
+        }
+        target.numbers.put(0, numbers, 0, length());
+    }
+
+    // In place, in the order of Double.compare like Arrays.sort (-0 before 0,
+    // NaN last). Quicksort, with a heapsort for ranges that keep splitting
+    // badly so the worst case stays n log n.
+    void sort() {
+        int length = length();
+        int depth = 2 * (32 - Integer.numberOfLeadingZeros(length));
+        sort(0, length - 1, depth);
+    }
+
+    private void sort(int low, int high, int depth) {
+        while (high - low >= INSERTION_SORT_LENGTH) {
+            if (depth-- == 0) {
+                heapSort(low, high);
+                return;
+            }
+            int split = partition(low, high);
+            // recurse into the smaller side, loop on the larger
+            if (split - low < high - split) {
+                sort(low, split - 1, depth);
+                low = split + 1;
+            } else {
+                sort(split + 1, high, depth);
+                high = split - 1;
+            }
+        }
+        insertionSort(low, high);
+    }
+
+    // Median of three as the pivot, returns where it ends up
+    private int partition(int low, int high) {
+        int middle = low + (high - low) / 2;
+        if (less(middle, low)) {
+            swap(middle, low);
+        }
+        if (less(high, low)) {
+            swap(high, low);
+        }
+        if (less(high, middle)) {
+            swap(high, middle);
+        }
+        swap(middle, high - 1);
+        double pivot = numbers.get(high - 1);
+
+        int i = low;
+        int j = high - 1;
+        for (;;) {
+            while (Double.compare(numbers.get(++i), pivot) < 0) {
+            }
+            while (Double.compare(pivot, numbers.get(--j)) < 0) {
+            }
+            if (i >= j) {
+                break;
+            }
+            swap(i, j);
+        }
+        swap(i, high - 1);
+        return i;
+    }
+
+    private void insertionSort(int low, int high) {
+        for (int i = low + 1; i <= high; i++) {
+            double value = numbers.get(i);
+            int j = i - 1;
+            while (j >= low && Double.compare(numbers.get(j), value) > 0) {
+                numbers.put(j + 1, numbers.get(j));
+                j--;
+            }
+            numbers.put(j + 1, value);
+        }
+    }
+
+    private void heapSort(int low, int high) {
+        int count = high - low + 1;
+        for (int i = count / 2 - 1; i >= 0; i--) {
+            siftDown(low, i, count);
+        }
+        for (int end = count - 1; end > 0; end--) {
+            swap(low, low + end);
+            siftDown(low, 0, end);
+        }
+    }
+
+    private void siftDown(int base, int node, int count) {
+        for (;;) {
+            int child = 2 * node + 1;
+            if (child >= count) {
+                return;
+            }
+            if (child + 1 < count && less(base + child, base + child + 1)) {
+                child++;
+            }
+            if (!less(base + node, base + child)) {
+                return;
+            }
+            swap(base + node, base + child);
+            node = child;
+        }
+    }
+
+    private boolean less(int a, int b) {
+        return Double.compare(numbers.get(a), numbers.get(b)) < 0;
+    }
+
+    private void swap(int a, int b) {
+        double value = numbers.get(a);
+        numbers.put(a, numbers.get(b));
+        numbers.put(b, value);
+    }
+
+    private void checkIndex(int index) {
+        if (index >= numbers.capacity()) {
+            throw new NativeError("Buffer index " + index + " out of range for length "
+                    + numbers.capacity() + ".");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<buffer " + length() + ">";
+    }
+}
@@ -0,0 +1,80 @@
+package com.craftinginterpreters.lox;
+
+// Bounded queue between tasks, see TaskNatives. send waits while it's full
+// and receive while it's empty. After close, sends fail and receives get
+// what's left, then nil. nil itself can't be sent, so a receive of nil
+// always means the channel is closed and drained.
+//
+// The buffer starts small and doubles as values queue up, so a channel made
+// with a huge capacity only takes the room it's actually filled to.
+class LoxChannel {
+    private static final int INITIAL_SIZE = 16;
+
+    private final int capacity;
+    private Object[] buffer;
+    // index of the oldest value
+    private int head = 0;
+    private int count = 0;
+    private boolean closed = false;
+
+    LoxChannel(int capacity) {
+        this.capacity = capacity;
+        buffer = new Object[Math.min(capacity, INITIAL_SIZE)];
+    }
+
+    synchronized void send(Object value) throws InterruptedException {
+        while (count == capacity && !closed) {
+            wait();
+        }
+        if (closed) {
+            throw new NativeError("Can't send on a closed channel.");
+        }
+        if (count == buffer.length) {
+            grow();
+        }
+        buffer[(head + count) % buffer.length] = value;
+        count++;
+        notifyAll();
+    }
+
+    synchronized Object receive() throws InterruptedException {
+        while (count == 0 && !closed) {
+            wait();
+        }
+        if (count == 0) {
+            return null;
+        }
+        Object value = buffer[head];
+        buffer[head] = null;
+        head = (head + 1) % buffer.length;
+        count--;
+        notifyAll();
+        return value;
+    }
+
+    // Unwraps the ring into a buffer twice the size (at most capacity), oldest
+    // value first
+    private void grow() {
+        Object[] grown;
+        try {
+            grown = new Object[(int) Math.min((long) buffer.length * 2, capacity)];
+        } catch (OutOfMemoryError e) {
+            throw new NativeError("Not enough memory to queue more values.");
+        }
+        for (int i = 0; i < count; i++) {
+            grown[i] = buffer[(head + i) % buffer.length];
+        }
+        buffer = grown;
+        head = 0;
+    }
+
+    synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+}
@@ -0,0 +1,71 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+class LoxClass implements LoxCallable {
+    final String name;
+    final LoxClass superclass;
+    final Map<String, LoxFunction> methods;
+    // Flattened lookups including inherited methods, so a call doesn't walk
+    // the superclass chain each time. A class's methods and superclass can't
+    // change after its declaration has run, so entries never go stale; anything
+    // that ever mutates a class must clear this. Concurrent, as workers (see
+    // ParallelNatives) look methods up too.
+    private final Map<String, LoxFunction> methodCache = new ConcurrentHashMap<>();
+
+    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+        this.name = name;
+        this.superclass = superclass;
+        this.methods = methods;
+    }
+
+    LoxFunction findMethod(String name) {
+        LoxFunction method = methodCache.get(name);
+        if (method == null) {
+            method = lookUpMethod(name);
+            if (method != null) {
+                methodCache.put(name, method);
+            }
+        }
+        return method;
+    }
+
+    private LoxFunction lookUpMethod(String name) {
+        LoxFunction method = methods.get(name);
+        if (method != null) {
+            return method;
+        }
+
+        if (superclass != null) {
+            return superclass.findMethod(name);
+        }
+
+        return null;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguements) {
+        LoxInstance instance = new LoxInstance(this);
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.callMethod(interpreter, instance, arguements);
+        }
+        return instance;
+    }
+
+    @Override
+    public int arity() {
+        LoxFunction initializer = findMethod("init");
+        if (initializer == null) {
+            return 0;
+        }
+        return initializer.arity();
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,157 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Reads a file a record at a time, see FileNatives. The file is memory-mapped
+// a window at a time rather than read into the heap: a single mapping can't
+// pass 2GB, and mapping all of a large file at once would only hold on to
+// address space for the parts already read. Records are MappedText values
+// pointing into the window they were found in, a window stays mapped while
+// any of them are still around.
+//
+// A record that runs over the end of a window makes the next window start at
+// that record, so every record lies inside one mapping. Whenever a window is
+// mapped, the one after it is paged in on a background thread, so the disk
+// is busy reading ahead while the script works through the current one.
+class LoxFileReader implements LoxIterator {
+    // bytes mapped at a time, grown for a record longer than this
+    private static final long WINDOW = 64L * 1024 * 1024;
+    private static final long MAX_WINDOW = Integer.MAX_VALUE;
+
+    private static final ExecutorService READ_AHEAD = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "lox-read-ahead");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Path path;
+    private final byte[] separator;
+    // drop a '\r' before each separator, for lines written on Windows
+    private final boolean trimReturn;
+    private final long size;
+
+    private MappedByteBuffer window;
+    // where the window starts in the file
+    private long windowStart;
+    // where the next record starts in the window
+    private int position = 0;
+    private boolean done = false;
+
+    LoxFileReader(Path path, byte[] separator, boolean trimReturn) throws IOException {
+        this.path = path;
+        this.separator = separator;
+        this.trimReturn = trimReturn;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            size = channel.size();
+        }
+        map(0, Math.min(size, WINDOW));
+    }
+
+    @Override
+    public synchronized boolean done() {
+        return done;
+    }
+
+    // Locked so that a reader shared between tasks hands each record to
+    // exactly one of them
+    @Override
+    public synchronized Object next(Interpreter interpreter) {
+        if (done) {
+            return null;
+        }
+        try {
+            while (true) {
+                int end = find();
+                if (end != -1) {
+                    MappedText record = record(end);
+                    position = end + separator.length;
+                    return record;
+                }
+
+                long windowEnd = windowStart + window.capacity();
+                if (windowEnd == size) {
+                    if (position == window.capacity()) {
+                        done = true;
+                        return null;
+                    }
+                    // the last record, without a separator after it
+                    MappedText record = record(window.capacity());
+                    position = window.capacity();
+                    return record;
+                }
+
+                long start = windowStart + position;
+                long length = windowEnd - start;
+                if (length >= MAX_WINDOW) {
+                    throw new NativeError("Record at byte " + start + " of '" + path
+                            + "' is longer than " + MAX_WINDOW + " bytes.");
+                }
+                long grown = Math.min(MAX_WINDOW, Math.max(WINDOW, 2 * length));
+                map(start, Math.min(size - start, grown));
+            }
+        } catch (IOException e) {
+            done = true;
+            throw new NativeError("Can't read '" + path + "': " + e.getMessage());
+        }
+    }
+
+    // Where the next separator is in the window, -1 if there isn't a whole one
+    private int find() {
+        int limit = window.capacity() - separator.length;
+        byte first = separator[0];
+        for (int i = position; i <= limit; i++) {
+            if (window.get(i) != first) {
+                continue;
+            }
+            int matched = 1;
+            while (matched < separator.length
+                    && window.get(i + matched) == separator[matched]) {
+                matched++;
+            }
+            if (matched == separator.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private MappedText record(int end) {
+        if (trimReturn && end > position && window.get(end - 1) == '\r') {
+            end--;
+        }
+        return new MappedText(window, position, end - position);
+    }
+
+    private void map(long start, long length) throws IOException {
+        // a mapping stays valid once its channel is closed
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        windowStart = start;
+        position = 0;
+
+        long next = start + length;
+        if (next < size) {
+            READ_AHEAD.execute(() -> readAhead(next, Math.min(size - next, WINDOW)));
+        }
+    }
+
+    private void readAhead(long start, long length) {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            channel.map(FileChannel.MapMode.READ_ONLY, start, length).load();
+        } catch (IOException e) {
+            // only a hint, the reader itself reports any error
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "<file reader " + path + ">";
+    }
+}
@@ -3,34 +3,123 @@ package com.craftinginterpreters.lox;
 import java.util.List;
 
 class LoxFunction implements LoxCallable {
-    private final List<Token> params;
-    private final List<Stmt> body;
-    private final String name;
-    private final Environment closure;
+    // package private for Snapshot, which writes functions out field by field
+    final List<Token> params;
+    List<Stmt> body;
+    // set until a lazily parsed body is first needed
+    final LazyBody lazyBody;
+    final String name;
+    final Environment closure;
+    // Methods take `this` in slot 0 of their own frame, ahead of the params
+    final boolean isMethod;
+    final boolean isInitializer;
+    // Set when a method is used as a value (obj.method without a call)
+    final LoxInstance receiver;
+    // whether calls return a LoxGenerator, known once the body is
+    private Boolean isGenerator = null;
 
     LoxFunction(Stmt.Function declaration, Environment closure) {
+        this(declaration, closure, false, false);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure, boolean isMethod,
+            boolean isInitializer) {
         this.closure = closure;
         this.params = declaration.params;
         this.body = declaration.body;
+        this.lazyBody = declaration.lazyBody;
         this.name = declaration.name.lexeme;
+        this.isMethod = isMethod;
+        this.isInitializer = isInitializer;
+        this.receiver = null;
     }
 
     LoxFunction(Expr.Function declaration, Environment closure) {
         this.closure = closure;
         this.params = declaration.params;
         this.body = declaration.body;
+        this.lazyBody = null;
         this.name = null;
+        this.isMethod = false;
+        this.isInitializer = false;
+        this.receiver = null;
+    }
+
+    // Rebuilds a function read back from a snapshot image
+    LoxFunction(String name, List<Token> params, List<Stmt> body, LazyBody lazyBody,
+            Environment closure, boolean isMethod, boolean isInitializer, LoxInstance receiver) {
+        this.name = name;
+        this.params = params;
+        this.body = body;
+        this.lazyBody = lazyBody;
+        this.closure = closure;
+        this.isMethod = isMethod;
+        this.isInitializer = isInitializer;
+        this.receiver = receiver;
+    }
+
+    private LoxFunction(LoxFunction method, LoxInstance receiver) {
+        this.closure = method.closure;
+        this.params = method.params;
+        this.body = method.body;
+        this.lazyBody = method.lazyBody;
+        this.name = method.name;
+        this.isMethod = true;
+        this.isInitializer = method.isInitializer;
+        this.receiver = receiver;
+    }
+
+    // Whether this is the function the declaration created, InlineSite's guard
+    boolean isDeclaredBy(Stmt.Function declaration) {
+        if (declaration.lazyBody != null) {
+            return lazyBody == declaration.lazyBody;
+        }
+        return body == declaration.body && !isMethod;
+    }
+
+    // Only needed when a method escapes as a value, calls through
+    // obj.method(...) go straight to callMethod
+    LoxFunction bind(LoxInstance instance) {
+        return new LoxFunction(this, instance);
     }
 
     @Override
     public Object call(Interpreter interpreter,
             List<Object> arguements) {
+        if (isMethod) {
+            return callMethod(interpreter, receiver, arguements);
+        }
+
         Environment environment = new Environment(closure);
+        for (int i = 0; i < params.size(); i++) {
+            environment.define(params.get(i).lexeme,
+                    arguements.get(i));
+        }
+        return run(interpreter, environment);
+    }
 
+    Object callMethod(Interpreter interpreter, LoxInstance instance, List<Object> arguements) {
+        Environment environment = new Environment(closure);
+        environment.define("this", instance);
         for (int i = 0; i < params.size(); i++) {
             environment.define(params.get(i).lexeme,
                     arguements.get(i));
         }
+
+        Object result = run(interpreter, environment);
+        return isInitializer ? instance : result;
+    }
+
+    private Object run(Interpreter interpreter, Environment environment) {
+        if (body == null) {
+            body = lazyBody.body(interpreter);
+        }
+        if (isGenerator == null) {
+            isGenerator = LoxGenerator.isGeneratorBody(body);
+        }
+        if (isGenerator) {
+            return new LoxGenerator(name, body, environment);
+        }
         try {
             interpreter.executeBlock(body, environment);
         } catch (Return returnValue) {
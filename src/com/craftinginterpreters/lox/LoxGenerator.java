@@ -0,0 +1,201 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// What calling a function with a `yield` in its body returns. The body runs
+// a step at a time as values are asked for:
+//   next(g)  runs g up to its next yield and returns the value, nil once the
+//            body has finished
+//   done(g)  whether the body has finished
+// so `for (var x = next(g); !done(g); x = next(g)) ...` visits every value.
+// Both natives also take the file readers of FileNatives, see LoxIterator.
+//
+// Java 17 has neither continuations nor virtual threads, and a thread per
+// generator would be far too heavy, so the body isn't run by the recursive
+// visitor. Only the blocks, ifs and loops with a yield inside (marked by the
+// Resolver, see Stmt.yields) are run here, from an explicit stack of frames
+// that is simply left where it is at a yield. Every other statement, and all
+// expressions, go to the interpreter as usual. A suspended generator is that
+// stack and the body's environments, a few small objects.
+//
+// next and done are synchronized, so a generator shared between tasks hands
+// each value to exactly one of them, like a file reader does.
+class LoxGenerator implements LoxIterator {
+    // The statements left to run in a block, or the one branch of an if
+    private static class Frame {
+        final List<Stmt> statements;
+        final Environment environment;
+        int next = 0;
+        // set for the body of a loop, which goes round again when it's done
+        final Stmt.While loop;
+
+        Frame(List<Stmt> statements, Environment environment, Stmt.While loop) {
+            this.statements = statements;
+            this.environment = environment;
+            this.loop = loop;
+        }
+    }
+
+    private final String name;
+    private final List<Frame> frames = new ArrayList<>();
+    private boolean running = false;
+    private boolean done = false;
+
+    LoxGenerator(String name, List<Stmt> body, Environment environment) {
+        this.name = name;
+        frames.add(new Frame(body, environment, null));
+    }
+
+    static void define(Environment globals) {
+        NativeFunction.define(globals, "next", 1, (interpreter, arguements) -> {
+            return iterator(arguements.get(0)).next(interpreter);
+        });
+
+        NativeFunction.define(globals, "done", 1, (interpreter, arguements) -> {
+            return iterator(arguements.get(0)).done();
+        });
+    }
+
+    // Whether a statement has a yield of its own function inside, from its
+    // children, which are marked first
+    static boolean yields(Stmt stmt) {
+        if (stmt instanceof Stmt.Yield) {
+            return true;
+        }
+        if (stmt instanceof Stmt.Block) {
+            for (Stmt inner : ((Stmt.Block) stmt).statements) {
+                if (inner.yields) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            return ifStmt.thenBranch.yields
+                    || (ifStmt.elseBranch != null && ifStmt.elseBranch.yields);
+        }
+        if (stmt instanceof Stmt.While) {
+            return ((Stmt.While) stmt).body.yields;
+        }
+        // functions and classes yield in their own calls
+        return false;
+    }
+
+    static boolean isGeneratorBody(List<Stmt> body) {
+        for (Stmt stmt : body) {
+            if (stmt.yields) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static LoxIterator iterator(Object value) {
+        if (value instanceof LoxIterator) {
+            return (LoxIterator) value;
+        }
+        throw new NativeError("Expected a generator or file reader.");
+    }
+
+    @Override
+    public synchronized boolean done() {
+        return done;
+    }
+
+    @Override
+    public synchronized Object next(Interpreter interpreter) {
+        if (done) {
+            return null;
+        }
+        // the lock is reentrant, this catches the body asking for its own
+        // next value
+        if (running) {
+            throw new NativeError("Generator is already running.");
+        }
+        running = true;
+        try {
+            while (!frames.isEmpty()) {
+                try {
+                    Stmt.Yield yield = step(interpreter);
+                    if (yield != null) {
+                        Frame frame = frames.get(frames.size() - 1);
+                        return interpreter.evaluate(yield.value, frame.environment);
+                    }
+                } catch (Interpreter.BreakException e) {
+                    breakLoop();
+                }
+            }
+        } catch (Return returnValue) {
+            // the value of a return is nowhere to go, the Resolver only
+            // allows a bare one
+        } catch (RuntimeException e) {
+            frames.clear();
+            done = true;
+            throw e;
+        } finally {
+            running = false;
+        }
+        frames.clear();
+        done = true;
+        return null;
+    }
+
+    // Runs the next statement, returning it if it's a yield
+    private Stmt.Yield step(Interpreter interpreter) {
+        Frame frame = frames.get(frames.size() - 1);
+        if (frame.next == frame.statements.size()) {
+            if (frame.loop != null && interpreter.isTruthy(
+                    interpreter.evaluate(frame.loop.condition, frame.environment))) {
+                frame.next = 0;
+            } else {
+                frames.remove(frames.size() - 1);
+            }
+            return null;
+        }
+
+        Stmt stmt = frame.statements.get(frame.next++);
+        if (!stmt.yields) {
+            interpreter.execute(stmt, frame.environment);
+            return null;
+        }
+        if (stmt instanceof Stmt.Yield) {
+            return (Stmt.Yield) stmt;
+        }
+        if (stmt instanceof Stmt.Block) {
+            frames.add(new Frame(((Stmt.Block) stmt).statements,
+                    new Environment(frame.environment), null));
+        } else if (stmt instanceof Stmt.If) {
+            Stmt.If ifStmt = (Stmt.If) stmt;
+            Stmt branch = interpreter.isTruthy(
+                    interpreter.evaluate(ifStmt.condition, frame.environment))
+                    ? ifStmt.thenBranch
+                    : ifStmt.elseBranch;
+            if (branch != null) {
+                frames.add(new Frame(Collections.singletonList(branch), frame.environment, null));
+            }
+        } else {
+            Stmt.While loop = (Stmt.While) stmt;
+            if (interpreter.isTruthy(interpreter.evaluate(loop.condition, frame.environment))) {
+                frames.add(new Frame(Collections.singletonList(loop.body), frame.environment,
+                        loop));
+            }
+        }
+        return null;
+    }
+
+    // Drops the frames up to and including the innermost loop's body
+    private void breakLoop() {
+        Frame frame;
+        do {
+            frame = frames.remove(frames.size() - 1);
+        } while (frame.loop == null);
+    }
+
+    @Override
+    public String toString() {
+        return "<generator " + name + ">";
+    }
+}
@@ -0,0 +1,32 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+// Fields live in a flat array laid out by the instance's Shape rather than a
+// per instance HashMap, the interpreter's Get/Set caches index it directly.
+class LoxInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+
+    final LoxClass klass;
+    Shape shape = Shape.EMPTY;
+    Object[] fields = NO_FIELDS;
+
+    LoxInstance(LoxClass klass) {
+        this.klass = klass;
+    }
+
+    // Adds a field at slot (always the current shape's size) and moves to
+    // the next shape
+    void addField(Shape next, int slot, Object value) {
+        if (slot >= fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+        }
+        fields[slot] = value;
+        shape = next;
+    }
+
+    @Override
+    public String toString() {
+        return klass.name + " instance";
+    }
+}
@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+// What next(it) and done(it) step through: generators (see LoxGenerator) and
+// file readers (see FileNatives)
+interface LoxIterator {
+    // The next value, nil once there are no more
+    Object next(Interpreter interpreter);
+
+    // Whether next has run out
+    boolean done();
+}
@@ -0,0 +1,203 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+// Lox hash map, keyed by strings, numbers, booleans and nil.
+// Open addressing with linear probing over flat key/value/hash arrays, so an
+// entry costs no node object the way java.util.HashMap's do. Numbers hash by
+// their bits and compare by bits (same as Lox ==), strings use String's cached
+// hash. Removed entries leave a tombstone until the next rehash.
+class LoxMap {
+    private static final int INITIAL_CAPACITY = 8;
+    // nil can't be stored as null, null marks an empty slot
+    private static final Object NIL_KEY = new Object();
+    private static final Object TOMBSTONE = new Object();
+
+    private Object[] keys = new Object[INITIAL_CAPACITY];
+    private Object[] values = new Object[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size = 0;
+    // live entries plus tombstones, drives the load factor
+    private int used = 0;
+
+    int size() {
+        return size;
+    }
+
+    Object get(Object key) {
+        key = normalise(key);
+        int slot = find(key, hash(key));
+        return slot < 0 ? null : values[slot];
+    }
+
+    boolean has(Object key) {
+        key = normalise(key);
+        return find(key, hash(key)) >= 0;
+    }
+
+    void set(Object key, Object value) {
+        key = normalise(key);
+        int hash = hash(key);
+        int slot = find(key, hash);
+        if (slot >= 0) {
+            values[slot] = value;
+            return;
+        }
+
+        if ((used + 1) * 4 > keys.length * 3) {
+            // only grow when live entries need it, otherwise this just
+            // clears out tombstones
+            rehash(size * 2 >= keys.length ? keys.length * 2 : keys.length);
+        }
+
+        int mask = keys.length - 1;
+        int index = hash & mask;
+        while (keys[index] != null && keys[index] != TOMBSTONE) {
+            index = (index + 1) & mask;
+        }
+        if (keys[index] == null) {
+            used++;
+        }
+        keys[index] = key;
+        values[index] = value;
+        hashes[index] = hash;
+        size++;
+    }
+
+    boolean remove(Object key) {
+        key = normalise(key);
+        int slot = find(key, hash(key));
+        if (slot < 0) {
+            return false;
+        }
+        keys[slot] = TOMBSTONE;
+        values[slot] = null;
+        size--;
+        return true;
+    }
+
+    LoxArray keys() {
+        LoxArray result = new LoxArray();
+        for (Object key : keys) {
+            if (key != null && key != TOMBSTONE) {
+                result.push(key == NIL_KEY ? null : key);
+            }
+        }
+        return result;
+    }
+
+    private int find(Object key, int hash) {
+        int mask = keys.length - 1;
+        int index = hash & mask;
+        while (true) {
+            Object candidate = keys[index];
+            if (candidate == null) {
+                return -1;
+            }
+            if (candidate != TOMBSTONE && hashes[index] == hash && sameKey(candidate, key)) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void rehash(int capacity) {
+        Object[] oldKeys = keys;
+        Object[] oldValues = values;
+        int[] oldHashes = hashes;
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        hashes = new int[capacity];
+        used = size;
+
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == null || oldKeys[i] == TOMBSTONE) {
+                continue;
+            }
+            int index = oldHashes[i] & mask;
+            while (keys[index] != null) {
+                index = (index + 1) & mask;
+            }
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+            hashes[index] = oldHashes[i];
+        }
+    }
+
+    // Strings are flattened so a ConcatString and a String with the same text
+    // are the same key
+    private static Object normalise(Object key) {
+        if (key == null) {
+            return NIL_KEY;
+        }
+        if (key instanceof CharSequence) {
+            return key.toString();
+        }
+        if (key instanceof Double || key instanceof Boolean) {
+            return key;
+        }
+        throw new NativeError("Map keys must be strings, numbers, booleans or nil.");
+    }
+
+    private static int hash(Object key) {
+        int hash;
+        if (key == NIL_KEY) {
+            // not its identity hash, which would change the iteration order
+            // from run to run
+            hash = 0;
+        } else if (key instanceof Double) {
+            long bits = Double.doubleToLongBits((double) key);
+            hash = (int) (bits ^ (bits >>> 32));
+        } else {
+            hash = key.hashCode();
+        }
+        // spread the bits, low bits of doubles holding integers are all zero
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean sameKey(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a instanceof Double && b instanceof Double) {
+            return Double.doubleToLongBits((double) a) == Double.doubleToLongBits((double) b);
+        }
+        return a.equals(b);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        appendTo(text, Collections.newSetFromMap(new IdentityHashMap<>()));
+        return text.toString();
+    }
+
+    // Same as LoxArray.appendTo, a map already being printed further up
+    // shows as {...}
+    void appendTo(StringBuilder text, Set<Object> printing) {
+        if (!printing.add(this)) {
+            text.append("{...}");
+            return;
+        }
+        text.append("{");
+        boolean first = true;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == null || keys[i] == TOMBSTONE) {
+                continue;
+            }
+            if (!first) {
+                text.append(", ");
+            }
+            first = false;
+            LoxArray.append(text, keys[i] == NIL_KEY ? null : keys[i], printing);
+            text.append(": ");
+            LoxArray.append(text, values[i], printing);
+        }
+        text.append("}");
+        printing.remove(this);
+    }
+}
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+// A function running on a thread of its own, see TaskNatives
+class LoxTask {
+    private final String name;
+    private boolean finished = false;
+    private Object result = null;
+    // why the function failed, null if it returned
+    private String failure = null;
+
+    LoxTask(String name) {
+        this.name = name;
+    }
+
+    synchronized void finish(Object result) {
+        this.result = result;
+        finished = true;
+        notifyAll();
+    }
+
+    synchronized void fail(String message) {
+        failure = message;
+        finished = true;
+        notifyAll();
+    }
+
+    // The function's return value, or a NativeError if it failed
+    synchronized Object join() throws InterruptedException {
+        while (!finished) {
+            wait();
+        }
+        if (failure != null) {
+            throw new NativeError("Joined task failed: " + failure);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "<task " + name + ">";
+    }
+}
@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+// What TypeInference could prove about an expression's value. Anything it
+// couldn't, nil included, is UNKNOWN and keeps the interpreter's checks.
+enum LoxType {
+    UNKNOWN,
+    NUMBER,
+    // a String or ConcatString
+    STRING,
+    BOOL
+}
@@ -0,0 +1,91 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Lox string for a line or record of a mapped file, see LoxFileReader.
+// It only points at the bytes in the mapping and decodes them (as UTF-8) the
+// first time something needs the text, like ConcatString does with its
+// builder. A line that is skipped costs no copy at all, and while the bytes
+// are plain ASCII, length, charAt and comparing with another string work on
+// the bytes directly.
+//
+// Only absolute reads are made from the buffer, so values can be shared
+// between threads.
+class MappedText implements CharSequence {
+    private final ByteBuffer bytes;
+    private final int offset;
+    private final int size;
+    private String flat = null;
+    // 0 until checked, then 1 for ASCII and -1 for anything else
+    private byte ascii = 0;
+
+    MappedText(ByteBuffer bytes, int offset, int size) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.size = size;
+    }
+
+    private boolean isAscii() {
+        if (ascii == 0) {
+            byte result = 1;
+            for (int i = offset; i < offset + size; i++) {
+                if (bytes.get(i) < 0) {
+                    result = -1;
+                    break;
+                }
+            }
+            ascii = result;
+        }
+        return ascii == 1;
+    }
+
+    // Equality for the interpreter, without decoding where it can
+    boolean textEquals(CharSequence other) {
+        if (flat == null && isAscii()) {
+            if (other.length() != size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if ((char) bytes.get(offset + i) != other.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return toString().contentEquals(other);
+    }
+
+    @Override
+    public int length() {
+        return isAscii() ? size : toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (!isAscii()) {
+            return toString().charAt(index);
+        }
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index);
+        }
+        return (char) bytes.get(offset + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            byte[] copy = new byte[size];
+            bytes.get(offset, copy);
+            text = new String(copy, StandardCharsets.UTF_8);
+            flat = text;
+        }
+        return text;
+    }
+}
@@ -0,0 +1,11 @@
+package com.craftinginterpreters.lox;
+
+// Thrown by native functions, which don't know the call site token.
+// Interpreter.visitCallExpr rethrows it as a RuntimeError at the call.
+class NativeError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    NativeError(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,56 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// A native function whose behaviour is given as a lambda, so native modules
+// can define functions without an anonymous LoxCallable class each.
+// Bodies report bad arguments by throwing NativeError, the interpreter turns
+// that into a RuntimeError at the call site.
+class NativeFunction implements LoxCallable {
+    interface Body {
+        Object call(Interpreter interpreter, List<Object> arguements);
+    }
+
+    final String name;
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(String name, int arity, Body body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    static void define(Environment globals, String name, int arity, Body body) {
+        globals.define(name, new NativeFunction(name, arity, body));
+    }
+
+    static double number(Object value, String what) {
+        if (value instanceof Double) {
+            return (double) value;
+        }
+        throw new NativeError(what + " must be a number.");
+    }
+
+    static LoxCallable callable(Object value, String what) {
+        if (value instanceof LoxCallable) {
+            return (LoxCallable) value;
+        }
+        throw new NativeError(what + " must be a function.");
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguements) {
+        return body.call(interpreter, arguements);
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
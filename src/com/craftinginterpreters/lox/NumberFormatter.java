@@ -0,0 +1,167 @@
+package com.craftinginterpreters.lox;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+// Number to text for print and stringify.
+// Writes straight into a StringBuilder (the output buffer when printing) instead
+// of going through Double.toString and stripping ".0" with substring.
+//
+// Every number gets the shortest digits that read back as the same double,
+// laid out the way Double.toString lays them out: plain in [1e-3, 1e7),
+// scientific (1.5E-7, 2.0E21) outside it, NaN and Infinity as words.
+// Integers and most fractions in range take the exact double arithmetic paths
+// below. The rest go through shortestDigits, which is slower but covers every
+// double. Double.toString itself isn't used because before JDK 19 it sometimes
+// gives more digits than needed (2.82879384806159008E17 for
+// 2.82879384806159E17).
+class NumberFormatter {
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18 };
+    // Above 2^53 a long of digits is no longer exactly representable as double
+    private static final long MAX_EXACT = 1L << 53;
+
+    static String toString(double value) {
+        if (value == (long) value && Math.abs(value) < 1e7 && !isNegativeZero(value)) {
+            return Long.toString((long) value);
+        }
+        StringBuilder out = new StringBuilder(24);
+        append(out, value);
+        return out.toString();
+    }
+
+    static void append(StringBuilder out, double value) {
+        double abs = Math.abs(value);
+
+        if (value == (long) value && abs < 1e7) {
+            if (isNegativeZero(value)) {
+                out.append('-');
+            }
+            out.append((long) value);
+            return;
+        }
+
+        if (abs >= 1e-3 && abs < 1e7 && appendFixed(out, value, abs)) {
+            return;
+        }
+
+        if (Double.isNaN(value)) {
+            out.append("NaN");
+            return;
+        }
+        if (value < 0) {
+            out.append('-');
+        }
+        if (Double.isInfinite(value)) {
+            out.append("Infinity");
+            return;
+        }
+
+        BigDecimal shortest = shortestDigits(abs);
+        String digits = shortest.unscaledValue().toString();
+        // where the decimal point goes, counted from the first digit
+        int point = digits.length() - shortest.scale();
+        if (abs >= 1e-3 && abs < 1e7) {
+            appendPlain(out, digits, point);
+        } else {
+            appendScientific(out, digits, point);
+        }
+    }
+
+    // The fewest significant digits that read back as abs, positive and
+    // finite. For each length the nearest decimals below and above abs are the
+    // only ones that can, so checking those two (the closer first) finds the
+    // shortest, and of the shortest the closest to abs. Trailing zeros are
+    // stripped.
+    private static BigDecimal shortestDigits(double abs) {
+        BigDecimal exact = new BigDecimal(abs);
+        for (int precision = 1; precision < 17; precision++) {
+            BigDecimal below = exact.round(new MathContext(precision, RoundingMode.FLOOR));
+            BigDecimal above = exact.round(new MathContext(precision, RoundingMode.CEILING));
+            if (exact.subtract(below).compareTo(above.subtract(exact)) > 0) {
+                BigDecimal swap = below;
+                below = above;
+                above = swap;
+            }
+            if (below.doubleValue() == abs) {
+                return below.stripTrailingZeros();
+            }
+            if (above.doubleValue() == abs) {
+                return above.stripTrailingZeros();
+            }
+        }
+        // 17 significant digits always read back
+        return exact.round(new MathContext(17, RoundingMode.HALF_EVEN)).stripTrailingZeros();
+    }
+
+    private static void appendPlain(StringBuilder out, String digits, int point) {
+        if (point <= 0) {
+            out.append("0.");
+            for (int i = point; i < 0; i++) {
+                out.append('0');
+            }
+            out.append(digits);
+        } else if (point >= digits.length()) {
+            // whole numbers in range took the long path, this is only for
+            // completeness
+            out.append(digits);
+            for (int i = digits.length(); i < point; i++) {
+                out.append('0');
+            }
+        } else {
+            out.append(digits, 0, point).append('.').append(digits, point, digits.length());
+        }
+    }
+
+    private static void appendScientific(StringBuilder out, String digits, int point) {
+        out.append(digits.charAt(0)).append('.');
+        if (digits.length() > 1) {
+            out.append(digits, 1, digits.length());
+        } else {
+            out.append('0');
+        }
+        out.append('E').append(point - 1);
+    }
+
+    // Shortest fixed point text: looks for the fewest fraction digits k whose
+    // rounded decimal digits/10^k reads back as exactly the same double. Both
+    // digits and 10^k are exact doubles here, so the division is correctly
+    // rounded and the check is an exact round trip.
+    private static boolean appendFixed(StringBuilder out, double value, double abs) {
+        for (int k = 1; k < POW10.length; k++) {
+            long digits = Math.round(abs * POW10[k]);
+            if (digits >= MAX_EXACT) {
+                return false;
+            }
+            if (digits / POW10[k] != abs) {
+                continue;
+            }
+
+            // rounding error in abs * 10^k can land one step late on a
+            // trailing zero
+            while (digits % 10 == 0) {
+                digits /= 10;
+                k--;
+            }
+
+            long scale = (long) POW10[k];
+            long fraction = digits % scale;
+            if (value < 0) {
+                out.append('-');
+            }
+            out.append(digits / scale).append('.');
+            for (long pad = scale / 10; pad > fraction; pad /= 10) {
+                out.append('0');
+            }
+            out.append(fraction);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isNegativeZero(double value) {
+        return value == 0 && Double.doubleToRawLongBits(value) != 0;
+    }
+}
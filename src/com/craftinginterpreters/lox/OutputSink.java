@@ -0,0 +1,104 @@
+package com.craftinginterpreters.lox;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Where print statements go.
+// System.out.println is synchronized and flushes far too often when stdout is
+// a pipe, so printed text is collected here and only encoded and written to the
+// channel once the buffer passes the threshold, or when Lox asks for a flush
+// (REPL prompt, runtime error, exit). Synchronized, as ParallelNatives'
+// workers print to the same sink.
+class OutputSink {
+    static final int DEFAULT_THRESHOLD = 8192;
+
+    private final WritableByteChannel channel;
+    private final int threshold;
+    private final StringBuilder buffer = new StringBuilder();
+    private final CharsetEncoder encoder;
+    private final ByteBuffer bytes = ByteBuffer.allocate(8192);
+    // Like PrintStream, a failed write (e.g. closed pipe) doesn't stop the
+    // script, later output is just dropped
+    private boolean failed = false;
+
+    OutputSink(WritableByteChannel channel, int threshold) {
+        this.channel = channel;
+        this.threshold = threshold;
+        this.encoder = Charset.defaultCharset().newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    static OutputSink stdout(int threshold) {
+        return new OutputSink(new FileOutputStream(FileDescriptor.out).getChannel(), threshold);
+    }
+
+    static OutputSink file(String path, int threshold) throws IOException {
+        FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        return new OutputSink(channel, threshold);
+    }
+
+    synchronized void println(String text) {
+        buffer.append(text).append('\n');
+        if (buffer.length() >= threshold) {
+            flush();
+        }
+    }
+
+    synchronized void println(double number) {
+        NumberFormatter.append(buffer, number);
+        buffer.append('\n');
+        if (buffer.length() >= threshold) {
+            flush();
+        }
+    }
+
+    synchronized void flush() {
+        if (buffer.length() == 0) {
+            return;
+        }
+        if (failed) {
+            buffer.setLength(0);
+            return;
+        }
+
+        CharBuffer chars = CharBuffer.wrap(buffer);
+        encoder.reset();
+        try {
+            // encode into the fixed byte buffer, draining it whenever it fills up
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, true);
+                drain();
+            } while (result.isOverflow());
+            while (encoder.flush(bytes).isOverflow()) {
+                drain();
+            }
+            drain();
+        } catch (IOException e) {
+            failed = true;
+            bytes.clear();
+        }
+        buffer.setLength(0);
+    }
+
+    private void drain() throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+}
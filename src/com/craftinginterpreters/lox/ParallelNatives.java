@@ -0,0 +1,172 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+// Natives that spread the calls over a range of numbers across the cores:
+//   parallelMap(fn, from, to)             array of fn(i) for each whole i from
+//                                         `from` up to but not including `to`
+//   parallelReduce(fn, from, to, combine) the same fn(i) folded left to right
+//                                         with combine(a, b), nil if the range
+//                                         is empty
+// The range is split into chunks run as fork-join tasks, each chunk with a
+// worker Interpreter of its own that shares the globals. combine has to be
+// associative, but as chunks are folded in order it needn't be commutative.
+// fn and combine are refused unless they pass PurityCheck.
+class ParallelNatives {
+    private static final ForkJoinPool POOL = new ForkJoinPool();
+    // chunks per thread, more evens out calls that take different times
+    private static final int CHUNKS_PER_THREAD = 8;
+
+    static void define(Environment globals) {
+        NativeFunction.define(globals, "parallelMap", 3, (interpreter, arguements) -> {
+            LoxCallable function = function(interpreter, arguements.get(0), 1, "Mapped function");
+            int from = bound(arguements.get(1));
+            int count = count(from, bound(arguements.get(2)));
+
+            Object[] results = new Object[count];
+            if (count > 0) {
+                POOL.invoke(new MapTask(interpreter, function, from, from, from + count,
+                        grain(count), results));
+            }
+            LoxArray array = new LoxArray();
+            for (Object result : results) {
+                array.push(result);
+            }
+            return array;
+        });
+
+        NativeFunction.define(globals, "parallelReduce", 4, (interpreter, arguements) -> {
+            LoxCallable function = function(interpreter, arguements.get(0), 1, "Mapped function");
+            int from = bound(arguements.get(1));
+            int count = count(from, bound(arguements.get(2)));
+            LoxCallable combine = function(interpreter, arguements.get(3), 2, "Combining function");
+
+            if (count == 0) {
+                return null;
+            }
+            return POOL.invoke(new ReduceTask(interpreter, function, combine, from, from + count,
+                    grain(count)));
+        });
+    }
+
+    private static LoxCallable function(Interpreter interpreter, Object value, int arity,
+            String what) {
+        LoxCallable function = NativeFunction.callable(value, what);
+        if (function.arity() != arity) {
+            throw new NativeError(what + " must take " + arity
+                    + (arity == 1 ? " arguement." : " arguements."));
+        }
+        Expr.Assign assignment = new PurityCheck(interpreter).check(function);
+        if (assignment != null) {
+            throw new NativeError("Can't run " + function + " in parallel, it assigns '"
+                    + assignment.name.lexeme + "' from outside itself [line "
+                    + assignment.name.line + "].");
+        }
+        return function;
+    }
+
+    private static int bound(Object value) {
+        double bound = NativeFunction.number(value, "Range bound");
+        if (bound != Math.floor(bound) || Math.abs(bound) > Integer.MAX_VALUE) {
+            throw new NativeError("Range bound must be an integer.");
+        }
+        return (int) bound;
+    }
+
+    private static int count(int from, int to) {
+        long count = (long) to - from;
+        if (count > Integer.MAX_VALUE - 8) {
+            throw new NativeError("Range is too large.");
+        }
+        return (int) Math.max(0, count);
+    }
+
+    private static int grain(int count) {
+        return Math.max(1, count / (POOL.getParallelism() * CHUNKS_PER_THREAD));
+    }
+
+    private static Object call(Interpreter worker, LoxCallable function, Object... arguements) {
+        return function.call(worker, Arrays.asList(arguements));
+    }
+
+    private static class MapTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter parent;
+        private final LoxCallable function;
+        // where results[0] is in the range
+        private final int base;
+        private final int from;
+        private final int to;
+        private final int grain;
+        private final Object[] results;
+
+        MapTask(Interpreter parent, LoxCallable function, int base, int from, int to, int grain,
+                Object[] results) {
+            this.parent = parent;
+            this.function = function;
+            this.base = base;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                Interpreter worker = new Interpreter(parent);
+                for (int i = from; i < to; i++) {
+                    results[i - base] = call(worker, function, (double) i);
+                }
+                return;
+            }
+            int middle = from + (to - from) / 2;
+            invokeAll(new MapTask(parent, function, base, from, middle, grain, results),
+                    new MapTask(parent, function, base, middle, to, grain, results));
+        }
+    }
+
+    private static class ReduceTask extends RecursiveTask<Object> {
+        private static final long serialVersionUID = 1L;
+
+        private final Interpreter parent;
+        private final LoxCallable function;
+        private final LoxCallable combine;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        ReduceTask(Interpreter parent, LoxCallable function, LoxCallable combine, int from, int to,
+                int grain) {
+            this.parent = parent;
+            this.function = function;
+            this.combine = combine;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from <= grain) {
+                Interpreter worker = new Interpreter(parent);
+                Object result = call(worker, function, (double) from);
+                for (int i = from + 1; i < to; i++) {
+                    result = call(worker, combine, result, call(worker, function, (double) i));
+                }
+                return result;
+            }
+            int middle = from + (to - from) / 2;
+            ReduceTask left = new ReduceTask(parent, function, combine, from, middle, grain);
+            ReduceTask right = new ReduceTask(parent, function, combine, middle, to, grain);
+            right.fork();
+            Object leftResult = left.compute();
+            Object rightResult = right.join();
+            return call(new Interpreter(parent), combine, leftResult, rightResult);
+        }
+    }
+}
@@ -13,9 +13,22 @@ class Parser {
     private final List<Token> tokens;
     private int current = 0; // points to next token
     private int loopDepth = 0;
+    private int blockDepth = 0;
+    // Expressions nested deeper than this are marked deep, the interpreter and
+    // resolver walk those with explicit stacks instead of recursing
+    static final int DEEP_NESTING = 256;
+    // nesting depth of the tree the last parsePrecedence call returned
+    private int depth = 0;
+    // top level function bodies are only brace matched, see LazyBody
+    private final boolean lazyBodies;
 
     Parser(List<Token> tokens) {
+        this(tokens, false);
+    }
+
+    Parser(List<Token> tokens, boolean lazyBodies) {
         this.tokens = tokens;
+        this.lazyBodies = lazyBodies;
     }
 
     List<Stmt> parse() {
@@ -26,6 +39,16 @@ class Parser {
         return statements;
     }
 
+    // Parses the tokens of a LazyBody, '{' through '}'
+    List<Stmt> functionBody() {
+        try {
+            consume(LEFT_BRACE, "Expect '{' before function body.");
+            return block();
+        } catch (ParseError error) {
+            return null;
+        }
+    }
+
     Expr tryParseExpressExpr() {
         try {
             Expr expr = expression();
@@ -40,11 +63,14 @@ class Parser {
     // method
 
     private Expr expression() {
-        return assignment();
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
 
     private Stmt declaration() {
         try {
+            if (match(CLASS)) {
+                return classDeclaration();
+            }
             if (match(VAR)) {
                 return varDeclaration();
             }
@@ -59,6 +85,26 @@ class Parser {
         }
     }
 
+    private Stmt classDeclaration() {
+        Token name = consume(IDENTIFIER, "Expect class name.");
+
+        Expr.Variable superclass = null;
+        if (match(LESS)) {
+            consume(IDENTIFIER, "Expect superclass name.");
+            superclass = new Expr.Variable(previous());
+        }
+
+        consume(LEFT_BRACE, "Expect '{' before class body.");
+
+        List<Stmt.Function> methods = new ArrayList<>();
+        while (!check(RIGHT_BRACE) && !isAtEnd()) {
+            methods.add(function("method"));
+        }
+
+        consume(RIGHT_BRACE, "Expect '}' after class body.");
+        return new Stmt.Class(name, superclass, methods);
+    }
+
     // A program is a list of statements
     private Stmt statement() {
         if (match(FOR)) {
@@ -82,6 +128,9 @@ class Parser {
         if (match(BREAK)) {
             return breakStatement();
         }
+        if (match(YIELD)) {
+            return yieldStatement();
+        }
         return expressionStatement();
     }
 
@@ -191,6 +240,13 @@ class Parser {
         return new Stmt.Break(keyword);
     }
 
+    private Stmt yieldStatement() {
+        Token keyword = previous();
+        Expr value = expression();
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        return new Stmt.Yield(keyword, value);
+    }
+
     private Stmt expressionStatement() {
         Expr expr = expression();
         consume(SEMICOLON, "Expect ';' after expression");
@@ -213,10 +269,31 @@ class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
 
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+        if (lazyBodies && kind.equals("function") && blockDepth == 0) {
+            return lazyFunction(name, parameters);
+        }
         List<Stmt> body = block();
         return new Stmt.Function(name, parameters, body);
     }
 
+    // Skips to the matching '}' without building the body. Only top level
+    // functions are deferred, their bodies resolve without any enclosing scopes.
+    private Stmt.Function lazyFunction(Token name, List<Token> parameters) {
+        int start = current - 1;
+        int depth = 1;
+        while (!isAtEnd()) {
+            TokenType type = advance().type;
+            if (type == LEFT_BRACE) {
+                depth++;
+            } else if (type == RIGHT_BRACE && --depth == 0) {
+                Stmt.Function function = new Stmt.Function(name, parameters, null);
+                function.lazyBody = new LazyBody(tokens, start, current - 1, name, parameters);
+                return function;
+            }
+        }
+        throw error(peek(), "Expect '}' after block.");
+    }
+
     private Expr.Function function() {
 
         consume(LEFT_PAREN, "Expect '(' after fun.");
@@ -239,176 +316,343 @@ class Parser {
     private List<Stmt> block() {
         List<Stmt> statements = new ArrayList<>();
 
-        while (!check(RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
-        }
-
-        consume((RIGHT_BRACE), "Expect '}' after block.");
-        return statements;
-    }
-
-    private Expr assignment() {
-        Expr expr = or();
-
-        if (match(EQUAL)) {
-            Token equals = previous();
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable) {
-                Token name = ((Expr.Variable) expr).name;
-                return new Expr.Assign(name, value);
+        blockDepth++;
+        try {
+            while (!check(RIGHT_BRACE) && !isAtEnd()) {
+                statements.add(declaration());
             }
 
-            error(equals, "Invalid assignment target.");
+            consume((RIGHT_BRACE), "Expect '}' after block.");
+        } finally {
+            blockDepth--;
         }
-
-        return expr;
+        return statements;
     }
 
-    private Expr or() {
-        Expr expr = and();
+    // Expressions are parsed by precedence climbing (Pratt parsing) driven by
+    // the rule table below, instead of one method per precedence level. Reaching
+    // a literal takes expression -> parsePrecedence -> prefix rule rather than
+    // ten nested calls, and the trees built are the same as the old
+    // assignment/or/and/.../primary descent produced.
+    private enum Precedence {
+        NONE,
+        ASSIGNMENT, // =
+        OR, // or
+        AND, // and
+        EQUALITY, // == !=
+        COMPARISON, // < > <= >=
+        TERM, // + -
+        FACTOR, // * /
+        UNARY, // ! -
+        CALL, // . () []
+        PRIMARY;
+
+        Precedence next() {
+            return values()[ordinal() + 1];
+        }
+    }
+
+    private interface PrefixRule {
+        Expr parse(Parser parser, Token token);
+    }
+
+    private interface InfixRule {
+        Expr parse(Parser parser, Expr left, Token token);
+    }
+
+    private static class ParseRule {
+        final PrefixRule prefix;
+        final InfixRule infix;
+        final Precedence precedence;
+
+        ParseRule(PrefixRule prefix, InfixRule infix, Precedence precedence) {
+            this.prefix = prefix;
+            this.infix = infix;
+            this.precedence = precedence;
+        }
+    }
+
+    // indexed by TokenType ordinal, tokens without a rule can't start or
+    // continue an expression
+    private static final ParseRule[] rules = new ParseRule[TokenType.values().length];
+    static {
+        ParseRule none = new ParseRule(null, null, Precedence.NONE);
+        Arrays.fill(rules, none);
+
+        rules[LEFT_PAREN.ordinal()] = new ParseRule(Parser::grouping, Parser::call,
+                Precedence.CALL);
+        rules[LEFT_BRACKET.ordinal()] = new ParseRule(null, Parser::index, Precedence.CALL);
+        rules[DOT.ordinal()] = new ParseRule(null, Parser::dot, Precedence.CALL);
+        rules[MINUS.ordinal()] = new ParseRule(Parser::unary, Parser::binary, Precedence.TERM);
+        rules[PLUS.ordinal()] = new ParseRule(null, Parser::binary, Precedence.TERM);
+        rules[SLASH.ordinal()] = new ParseRule(null, Parser::binary, Precedence.FACTOR);
+        rules[STAR.ordinal()] = new ParseRule(null, Parser::binary, Precedence.FACTOR);
+        rules[BANG.ordinal()] = new ParseRule(Parser::unary, null, Precedence.NONE);
+        rules[BANG_EQUAL.ordinal()] = new ParseRule(null, Parser::binary, Precedence.EQUALITY);
+        rules[EQUAL_EQUAL.ordinal()] = new ParseRule(null, Parser::binary, Precedence.EQUALITY);
+        rules[GREATER.ordinal()] = new ParseRule(null, Parser::binary, Precedence.COMPARISON);
+        rules[GREATER_EQUAL.ordinal()] = new ParseRule(null, Parser::binary, Precedence.COMPARISON);
+        rules[LESS.ordinal()] = new ParseRule(null, Parser::binary, Precedence.COMPARISON);
+        rules[LESS_EQUAL.ordinal()] = new ParseRule(null, Parser::binary, Precedence.COMPARISON);
+        rules[IDENTIFIER.ordinal()] = new ParseRule(Parser::variable, null, Precedence.NONE);
+        rules[STRING.ordinal()] = new ParseRule(Parser::literal, null, Precedence.NONE);
+        rules[NUMBER.ordinal()] = new ParseRule(Parser::literal, null, Precedence.NONE);
+        rules[AND.ordinal()] = new ParseRule(null, Parser::logical, Precedence.AND);
+        rules[OR.ordinal()] = new ParseRule(null, Parser::logical, Precedence.OR);
+        rules[FALSE.ordinal()] = new ParseRule(Parser::literal, null, Precedence.NONE);
+        rules[TRUE.ordinal()] = new ParseRule(Parser::literal, null, Precedence.NONE);
+        rules[NIL.ordinal()] = new ParseRule(Parser::literal, null, Precedence.NONE);
+        rules[FUN.ordinal()] = new ParseRule(Parser::functionExpr, null, Precedence.NONE);
+        rules[SUPER.ordinal()] = new ParseRule(Parser::superExpr, null, Precedence.NONE);
+        rules[THIS.ordinal()] = new ParseRule(Parser::thisExpr, null, Precedence.NONE);
+    }
+
+    // What the operand a frame parses is for
+    private enum Waiting {
+        NOTHING, // the expression parsePrecedence was asked for
+        GROUPING,
+        UNARY,
+        BINARY,
+        LOGICAL,
+        ARGUEMENT,
+        INDEX,
+        ASSIGNMENT
+    }
+
+    // An operand being parsed at some precedence level, and the rule waiting
+    // for it. Rules that need an operand (grouping, unary, binary, calls, ...)
+    // push a frame rather than recursing, so how deep expressions nest is only
+    // limited by the heap. Frames are reused, parsing allocates only the tree.
+    private static class Frame {
+        Precedence precedence;
+        // the operand so far, null until its prefix rule is done, and how
+        // deep its tree is
+        Expr expr;
+        int depth;
+        Waiting waiting;
+        // the operator, '(', '[' or '='
+        Token token;
+        // the left operand, callee, indexed object or assignment target
+        Expr left;
+        List<Expr> arguements;
+        int deepest;
+
+        void add(Expr next, int nextDepth) {
+            depth = expr == null ? nextDepth + 1 : Math.max(depth, nextDepth) + 1;
+            expr = next;
+        }
+    }
+
+    // innermost last, a fun expression's body parses its expressions further
+    // up the same stack
+    private Frame[] frames = new Frame[16];
+    private int frameCount = 0;
+
+    private Expr parsePrecedence(Precedence precedence) {
+        int base = frameCount;
+        push(precedence, Waiting.NOTHING, null, null);
+        try {
+            while (true) {
+                Frame frame = frames[frameCount - 1];
+                Expr next;
+                if (frame.expr == null) {
+                    // checked before consuming so error recovery starts from
+                    // the same token as before
+                    PrefixRule prefix = rules[peek().type.ordinal()].prefix;
+                    if (prefix == null) {
+                        throw error(peek(), "Expect expression");
+                    }
+                    depth = 0;
+                    next = prefix.parse(this, advance());
+                } else if (frame.precedence.ordinal()
+                        <= rules[peek().type.ordinal()].precedence.ordinal()) {
+                    Token token = advance();
+                    depth = 0;
+                    next = rules[token.type.ordinal()].infix.parse(this, frame.expr, token);
+                } else if (frame.precedence == Precedence.ASSIGNMENT && match(EQUAL)) {
+                    // assignment is right associative and only allowed at the
+                    // lowest level
+                    next = operand(Precedence.ASSIGNMENT, Waiting.ASSIGNMENT, previous(),
+                            frame.expr);
+                } else {
+                    // the operand is done, hand it to the rule waiting for it
+                    if (frame.precedence == Precedence.ASSIGNMENT
+                            && frame.depth > DEEP_NESTING) {
+                        frame.expr.deep = true;
+                    }
+                    depth = frame.depth;
+                    if (frameCount - 1 == base) {
+                        return frame.expr;
+                    }
+                    next = finish(frame);
+                    if (next == null) {
+                        // the frame is parsing the next arguement
+                        continue;
+                    }
+                    frameCount--;
+                }
 
-        while (match(OR)) {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
+                // null when a rule pushed a frame for its operand
+                if (next != null) {
+                    frames[frameCount - 1].add(next, depth);
+                }
+            }
+        } finally {
+            frameCount = base;
+        }
+    }
+
+    private void push(Precedence precedence, Waiting waiting, Token token, Expr left) {
+        if (frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+        }
+        Frame frame = frames[frameCount];
+        if (frame == null) {
+            frame = new Frame();
+            frames[frameCount] = frame;
+        }
+        frameCount++;
+        frame.precedence = precedence;
+        frame.expr = null;
+        frame.depth = 0;
+        frame.waiting = waiting;
+        frame.token = token;
+        frame.left = left;
+        frame.arguements = null;
+        frame.deepest = 0;
+    }
+
+    // Has parsePrecedence parse an operand and pass it to finish. Rules
+    // return what this does, null, the node comes from finish.
+    private Expr operand(Precedence precedence, Waiting waiting, Token token, Expr left) {
+        push(precedence, waiting, token, left);
+        return null;
+    }
+
+    // Builds the node a finished operand was for, with depth set to the
+    // operand's depth. Null when the operand was an arguement with another
+    // one after it, which the same frame goes on to parse.
+    private Expr finish(Frame frame) {
+        Expr operand = frame.expr;
+        switch (frame.waiting) {
+            case GROUPING:
+                consume(RIGHT_PAREN, "Expect ')' after expression.");
+                return new Expr.Grouping(operand);
+            case UNARY:
+                return new Expr.Unary(frame.token, operand);
+            case BINARY:
+                return new Expr.Binary(frame.left, frame.token, operand);
+            case LOGICAL:
+                return new Expr.Logical(frame.left, frame.token, operand);
+            case INDEX:
+                Token closing = consume(RIGHT_BRACKET, "Expect ']' after index.");
+                return new Expr.Index(frame.left, closing, operand);
+            case ASSIGNMENT:
+                return assignment(frame.left, frame.token, operand);
+            default:
+                frame.arguements.add(operand);
+                frame.deepest = Math.max(frame.deepest, depth);
+                if (match(COMMA)) {
+                    if (frame.arguements.size() >= 255) {
+                        error(peek(), "Cannot have more than 255 arguements.");
+                    }
+                    frame.expr = null;
+                    frame.depth = 0;
+                    return null;
+                }
+                depth = frame.deepest;
+                Token paren = consume(RIGHT_PAREN, "Expect ')' after arguements.");
+                return new Expr.Call(frame.left, paren, frame.arguements);
         }
-        return expr;
     }
 
-    private Expr and() {
-        Expr expr = equality();
-
-        while (match(AND)) {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+    private Expr assignment(Expr target, Token equals, Expr value) {
+        if (target instanceof Expr.Variable) {
+            Token name = ((Expr.Variable) target).name;
+            return new Expr.Assign(name, value);
+        } else if (target instanceof Expr.Index) {
+            Expr.Index index = (Expr.Index) target;
+            return new Expr.IndexSet(index.object, index.bracket, index.index, value);
+        } else if (target instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) target;
+            return new Expr.Set(get.object, get.name, value);
         }
 
-        return expr;
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr equality() {
-        Expr expr = comparison();
-        // loops through equality operators e.g.: a == b !=c == d
-        // then returns when it hits a token that is not equality.
-        while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    // Left associative: the right operand only takes operators that bind
+    // tighter, e.g. a < b <= c = ((a,<,b), <=, c)
+    private Expr binary(Expr left, Token operator) {
+        return operand(rules[operator.type.ordinal()].precedence.next(), Waiting.BINARY,
+                operator, left);
     }
 
-    private Expr comparison() {
-        Expr expr = term();
-        // loops through comparison operators each time appending
-        // the previous expression to the left hand side of the current one
-        // e.g.: a < b <= c = ((a,<,b), <=, c)
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL)) {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr logical(Expr left, Token operator) {
+        return operand(rules[operator.type.ordinal()].precedence.next(), Waiting.LOGICAL,
+                operator, left);
     }
 
-    private Expr term() {
-        // Same as above 2 methods, exceptf for terms
-        Expr expr = factor();
-
-        while (match(MINUS, PLUS)) {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
+    private Expr unary(Token operator) {
+        return operand(Precedence.UNARY, Waiting.UNARY, operator, null);
     }
 
-    private Expr factor() {
-
-        Expr expr = unary();
-
-        while (match(SLASH, STAR)) {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
+    private Expr call(Expr callee, Token paren) {
+        if (match(RIGHT_PAREN)) { // empty arguement list
+            return new Expr.Call(callee, previous(), new ArrayList<>());
         }
-
-        return expr;
+        operand(Precedence.ASSIGNMENT, Waiting.ARGUEMENT, paren, callee);
+        frames[frameCount - 1].arguements = new ArrayList<>();
+        return null;
     }
 
-    private Expr unary() {
-        if (match(BANG, MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
-
-        return call();
+    private Expr index(Expr object, Token bracket) {
+        return operand(Precedence.ASSIGNMENT, Waiting.INDEX, bracket, object);
     }
 
-    private Expr call() {
-        Expr expr = primary();
-
-        while (true) {
-            if (match(LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else {
-                break;
-            }
-        }
-        return expr;
+    private Expr dot(Expr object, Token dot) {
+        Token name = consume(IDENTIFIER, "Expect property name after '.'.");
+        return new Expr.Get(object, name);
     }
 
-    private Expr finishCall(Expr callee) {
-        List<Expr> arguements = new ArrayList<>();
-
-        if (!check(RIGHT_PAREN)) { // if arguement list is empty skip the loop
-            do {
-                if (arguements.size() >= 255) {
-                    error(peek(), "Cannot have more than 255 arguements.");
-                }
-                arguements.add(expression());
-            } while (match(COMMA)); // check for commas after parsing expression, meaning there are more args
-        }
-        Token paren = consume(RIGHT_PAREN, "Expect ')' after arguements.");
-        return new Expr.Call(callee, paren, arguements);
+    private Expr grouping(Token paren) {
+        // the ')' is consumed once the inner expression is done, see finish
+        return operand(Precedence.ASSIGNMENT, Waiting.GROUPING, paren, null);
     }
 
-    private Expr primary() {
-        if (match(FALSE))
-            return new Expr.Literal(false);
-        if (match(TRUE))
-            return new Expr.Literal(true);
-        if (match(NIL))
-            return new Expr.Literal(null);
-
-        if (match(NUMBER, STRING)) {
-            return new Expr.Literal(previous().literal);
+    private Expr literal(Token token) {
+        switch (token.type) {
+            case FALSE:
+                return new Expr.Literal(false);
+            case TRUE:
+                return new Expr.Literal(true);
+            case NIL:
+                return new Expr.Literal(null);
+            default:
+                return new Expr.Literal(token.literal);
         }
+    }
 
-        if (match(IDENTIFIER)) {
-            return new Expr.Variable(previous());
-        }
+    private Expr variable(Token name) {
+        return new Expr.Variable(name);
+    }
 
-        if (match(LEFT_PAREN)) {
-            // 1. gets (
-            // 2. parses inner expression
-            // 3. Will throw error up call stack if ) is not present
-            Expr expr = expression();
-            consume(RIGHT_PAREN, "Expect ')' after expression.");
-            return new Expr.Grouping(expr);
-        }
+    private Expr superExpr(Token keyword) {
+        consume(DOT, "Expect '.' after 'super'.");
+        Token method = consume(IDENTIFIER, "Expect superclass method name.");
+        return new Expr.Super(keyword, method);
+    }
 
-        if (match(FUN)) {
-            return function();
-        }
+    private Expr thisExpr(Token keyword) {
+        return new Expr.This(keyword);
+    }
 
-        throw error(peek(), "Expect expression");
+    private Expr functionExpr(Token keyword) {
+        Expr function = function();
+        // the body's expressions are evaluated in their own calls
+        depth = 0;
+        return function;
     }
 
     private boolean match(TokenType... types) {
@@ -482,6 +726,7 @@ class Parser {
                 case WHILE:
                 case PRINT:
                 case RETURN:
+                case YIELD:
                     return;
             }
 
@@ -0,0 +1,349 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Opt-in execution profile (jlox --profile script.lox).
+// The interpreter bumps the hits counter on every node it visits, the profiler
+// remembers a node the first time it runs so the report only walks nodes that
+// actually executed instead of the whole tree.
+//
+// Worker interpreters (ParallelNatives, TaskNatives) share their parent's
+// profiler, so work done on other threads is counted too. Once a worker has
+// been made every count takes the profiler's lock, before that there is only
+// the one thread and counting stays lock free.
+class Profiler {
+    private static final int REPORT_LIMIT = 10;
+
+    // Operand type buckets for the binary type profile
+    private static final String[] TYPE_NAMES = {
+        "nil", "bool", "number", "string", "callable", "other"
+    };
+
+    private final List<Stmt> statements = new ArrayList<>();
+    private final List<Stmt.While> loops = new ArrayList<>();
+    private final List<Expr.Call> calls = new ArrayList<>();
+    private final List<Expr.Assign> assignments = new ArrayList<>();
+    // counts indexed by left type * TYPE_NAMES.length + right type
+    private final Map<Expr.Binary, long[]> operandTypes = new HashMap<>();
+    private final LineFinder lines = new LineFinder();
+    private volatile boolean shared = false;
+
+    // Called before a worker using this profiler starts
+    void share() {
+        shared = true;
+    }
+
+    void count(Stmt stmt) {
+        if (shared) {
+            synchronized (this) {
+                record(stmt);
+            }
+        } else {
+            record(stmt);
+        }
+    }
+
+    void count(Expr expr) {
+        if (shared) {
+            synchronized (this) {
+                record(expr);
+            }
+        } else {
+            record(expr);
+        }
+    }
+
+    void recordOperands(Expr.Binary expr, Object left, Object right) {
+        if (shared) {
+            synchronized (this) {
+                recordTypes(expr, left, right);
+            }
+        } else {
+            recordTypes(expr, left, right);
+        }
+    }
+
+    private void record(Stmt stmt) {
+        if (stmt.hits++ == 0) {
+            statements.add(stmt);
+            if (stmt instanceof Stmt.While) {
+                loops.add((Stmt.While) stmt);
+            }
+        }
+    }
+
+    private void record(Expr expr) {
+        if (expr.hits++ == 0) {
+            if (expr instanceof Expr.Call) {
+                calls.add((Expr.Call) expr);
+            } else if (expr instanceof Expr.Assign) {
+                assignments.add((Expr.Assign) expr);
+            }
+        }
+    }
+
+    private void recordTypes(Expr.Binary expr, Object left, Object right) {
+        long[] counts = operandTypes.get(expr);
+        if (counts == null) {
+            counts = new long[TYPE_NAMES.length * TYPE_NAMES.length];
+            operandTypes.put(expr, counts);
+        }
+        counts[typeOf(left) * TYPE_NAMES.length + typeOf(right)]++;
+    }
+
+    private static int typeOf(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Boolean) {
+            return 1;
+        }
+        if (value instanceof Double) {
+            return 2;
+        }
+        if (value instanceof CharSequence) {
+            return 3;
+        }
+        if (value instanceof LoxCallable) {
+            return 4;
+        }
+        return 5;
+    }
+
+    synchronized void report(PrintStream out) {
+        out.println("== profile ==");
+
+        // Blocks are left out, otherwise every line inside a hot block would be
+        // counted twice
+        Map<Integer, Long> lineHits = new TreeMap<>();
+        for (Stmt stmt : statements) {
+            if (!(stmt instanceof Stmt.Block)) {
+                lineHits.merge(stmt.accept(lines), stmt.hits, Long::sum);
+            }
+        }
+        List<Map.Entry<Integer, Long>> hotLines = new ArrayList<>(lineHits.entrySet());
+        hotLines.sort((a, b) -> Long.compare(b.getValue(), a.getValue()));
+        out.println("hottest lines:");
+        for (Map.Entry<Integer, Long> entry : limit(hotLines)) {
+            out.println("  line " + entry.getKey() + ": " + entry.getValue());
+        }
+
+        calls.sort((a, b) -> Long.compare(b.hits, a.hits));
+        out.println("hottest call sites:");
+        for (Expr.Call call : limit(calls)) {
+            String callee = call.callee instanceof Expr.Variable
+                    ? ((Expr.Variable) call.callee).name.lexeme
+                    : "<expr>";
+            out.println("  line " + call.paren.line + " " + callee + "(): " + call.hits);
+        }
+
+        // A loop's own count is how often it was entered, its body's count is
+        // the number of iterations
+        loops.sort((a, b) -> Long.compare(b.body.hits, a.body.hits));
+        out.println("hottest loops:");
+        for (Stmt.While loop : limit(loops)) {
+            out.println("  line " + loop.accept(lines) + ": " + loop.body.hits +
+                    " iterations over " + loop.hits + " entries");
+        }
+
+        List<Expr.Binary> binaries = new ArrayList<>(operandTypes.keySet());
+        binaries.sort((a, b) -> Long.compare(b.hits, a.hits));
+        out.println("binary operand types:");
+        for (Expr.Binary binary : limit(binaries)) {
+            StringBuilder types = new StringBuilder();
+            long[] counts = operandTypes.get(binary);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    continue;
+                }
+                types.append(" ").append(TYPE_NAMES[i / TYPE_NAMES.length])
+                        .append(binary.operator.lexeme)
+                        .append(TYPE_NAMES[i % TYPE_NAMES.length])
+                        .append("=").append(counts[i]);
+            }
+            out.println("  line " + binary.operator.line + " '" + binary.operator.lexeme + "':"
+                    + types);
+        }
+
+        reportSuperinstructions(out);
+    }
+
+    // How much of the assignment, binary operator and print traffic each
+    // fused form covers
+    private void reportSuperinstructions(PrintStream out) {
+        Map<Superinstruction, Long> forms = new EnumMap<>(Superinstruction.class);
+        for (Expr.Assign assignment : assignments) {
+            forms.merge(assignment.form, assignment.hits, Long::sum);
+        }
+        for (Expr.Binary binary : operandTypes.keySet()) {
+            forms.merge(binary.form, binary.hits, Long::sum);
+        }
+        for (Stmt stmt : statements) {
+            if (stmt instanceof Stmt.Print) {
+                forms.merge(((Stmt.Print) stmt).form, stmt.hits, Long::sum);
+            }
+        }
+        long total = 0;
+        for (long hits : forms.values()) {
+            total += hits;
+        }
+
+        out.println("superinstructions:");
+        if (total == 0) {
+            return;
+        }
+        for (Map.Entry<Superinstruction, Long> entry : forms.entrySet()) {
+            out.println("  " + entry.getKey().description + ": " + entry.getValue()
+                    + " (" + entry.getValue() * 100 / total + "%)");
+        }
+    }
+
+    private static <T> List<T> limit(List<T> items) {
+        return items.size() > REPORT_LIMIT ? items.subList(0, REPORT_LIMIT) : items;
+    }
+
+    // Nodes don't store a line, so it is recovered from the first token we can
+    // find underneath them. Literals carry no token and report -1.
+    private static class LineFinder implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            return expr.name.line;
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return expr.operator.line;
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            return expr.paren.line;
+        }
+
+        @Override
+        public Integer visitFunctionExpr(Expr.Function expr) {
+            return expr.params.isEmpty() ? -1 : expr.params.get(0).line;
+        }
+
+        @Override
+        public Integer visitGetExpr(Expr.Get expr) {
+            return expr.name.line;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            // unwrapped in a loop, generated code can nest parentheses very deep
+            Expr inner = expr.expression;
+            while (inner instanceof Expr.Grouping) {
+                inner = ((Expr.Grouping) inner).expression;
+            }
+            return inner.accept(this);
+        }
+
+        @Override
+        public Integer visitIndexExpr(Expr.Index expr) {
+            return expr.bracket.line;
+        }
+
+        @Override
+        public Integer visitIndexSetExpr(Expr.IndexSet expr) {
+            return expr.bracket.line;
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return -1;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return expr.operator.line;
+        }
+
+        @Override
+        public Integer visitSetExpr(Expr.Set expr) {
+            return expr.name.line;
+        }
+
+        @Override
+        public Integer visitSuperExpr(Expr.Super expr) {
+            return expr.keyword.line;
+        }
+
+        @Override
+        public Integer visitThisExpr(Expr.This expr) {
+            return expr.keyword.line;
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            return expr.operator.line;
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return expr.name.line;
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            return stmt.statements.isEmpty() ? -1 : stmt.statements.get(0).accept(this);
+        }
+
+        @Override
+        public Integer visitClassStmt(Stmt.Class stmt) {
+            return stmt.name.line;
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            return stmt.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            return stmt.name.line;
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            return stmt.condition.accept(this);
+        }
+
+        @Override
+        public Integer visitPrintStmt(Stmt.Print stmt) {
+            return stmt.expression.accept(this);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            return stmt.keyword.line;
+        }
+
+        @Override
+        public Integer visitVarStmt(Stmt.Var stmt) {
+            return stmt.name.line;
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            return stmt.condition.accept(this);
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt) {
+            return stmt.keyword.line;
+        }
+
+        @Override
+        public Integer visitYieldStmt(Stmt.Yield stmt) {
+            return stmt.keyword.line;
+        }
+    }
+}
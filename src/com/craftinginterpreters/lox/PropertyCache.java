@@ -0,0 +1,31 @@
+package com.craftinginterpreters.lox;
+
+// Monomorphic inline cache stored on an Expr.Get or Expr.Set node.
+// Field entries: if the instance still has `shape` the field is at `slot`. For
+// a Set that added a field, `transition` is the shape the instance moves to.
+// Method entries (Get only, slot -1): an instance of `klass` with `shape` has
+// no field of that name, so the name means `method`.
+// Immutable so a cache entry is always read as a whole.
+class PropertyCache {
+    final Shape shape;
+    final int slot;
+    final Shape transition;
+    final LoxClass klass;
+    final LoxFunction method;
+
+    PropertyCache(Shape shape, int slot, Shape transition) {
+        this.shape = shape;
+        this.slot = slot;
+        this.transition = transition;
+        this.klass = null;
+        this.method = null;
+    }
+
+    PropertyCache(Shape shape, LoxClass klass, LoxFunction method) {
+        this.shape = shape;
+        this.slot = -1;
+        this.transition = null;
+        this.klass = klass;
+        this.method = method;
+    }
+}
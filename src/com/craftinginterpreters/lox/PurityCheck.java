@@ -0,0 +1,115 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Decides whether a function can be run on several threads at once, for
+// ParallelNatives. Works from the slots the Resolver left on each assignment:
+// a function is refused when it assigns a global (distance -1) or a variable
+// further out than the scopes it opened itself, i.e. one it captured. Its own
+// locals, and nested closures assigning them, are fine since every call gets
+// a fresh frame.
+//
+// Functions and classes it names through a global or a captured variable are
+// checked too, as whatever the name holds now. Functions only reached through
+// arguments, fields or elements aren't, and neither are changes to shared
+// arrays, maps or instances: keeping those apart is up to the script.
+class PurityCheck {
+    private final Interpreter interpreter;
+    private final Map<Object, Boolean> seen = new IdentityHashMap<>();
+    private final List<LoxFunction> functions = new ArrayList<>();
+
+    PurityCheck(Interpreter interpreter) {
+        this.interpreter = interpreter;
+    }
+
+    // The assignment that makes the callable impure, or null if there is none
+    Expr.Assign check(LoxCallable callable) {
+        add(callable);
+        while (!functions.isEmpty()) {
+            Expr.Assign assignment = check(functions.remove(functions.size() - 1));
+            if (assignment != null) {
+                return assignment;
+            }
+        }
+        return null;
+    }
+
+    private void add(Object value) {
+        if (seen.put(value, Boolean.TRUE) != null) {
+            return;
+        }
+        if (value instanceof LoxFunction) {
+            functions.add((LoxFunction) value);
+        } else if (value instanceof LoxClass) {
+            LoxClass klass = (LoxClass) value;
+            for (LoxFunction method : klass.methods.values()) {
+                add(method);
+            }
+            if (klass.superclass != null) {
+                add(klass.superclass);
+            }
+        }
+    }
+
+    private Expr.Assign check(LoxFunction function) {
+        List<Stmt> body = function.body != null
+                ? function.body
+                : function.lazyBody.body(interpreter);
+        Walk walk = new Walk(function);
+        walk.walk(body);
+        return walk.found;
+    }
+
+    private class Walk extends TreeWalker {
+        final LoxFunction function;
+        // how many scopes the node is inside of, counting from the function's
+        // own
+        int depth = 0;
+        Expr.Assign found = null;
+
+        Walk(LoxFunction function) {
+            this.function = function;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign assign) {
+            if (found == null && (assign.distance == -1 || assign.distance > depth)) {
+                found = assign;
+            }
+            return super.visitAssignExpr(assign);
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable variable) {
+            if (variable.distance == -1) {
+                add(interpreter.globals.globalValues.get(variable.name.lexeme));
+            } else if (variable.distance > depth) {
+                add(function.closure.getAt(variable.distance - depth - 1, variable.index));
+            }
+            return null;
+        }
+
+        @Override
+        void beginScope(Object owner) {
+            depth++;
+        }
+
+        @Override
+        void endScope() {
+            depth--;
+        }
+
+        @Override
+        void beginFunction(List<Stmt> body) {
+            depth++;
+        }
+
+        @Override
+        void endFunction() {
+            depth--;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+// One interactive session (jlox with no script).
+// Each line is scanned and parsed on its own and run against the same
+// interpreter and resolver, nothing entered earlier is scanned again. Resolved
+// slots are stored in the AST nodes, so once a line has run its tree can be
+// collected unless a function or class declared on it is still reachable.
+//
+// A line ending in ';' or '}' is run as statements, anything else is evaluated
+// as an expression and its value printed. Input that leaves a '(', '[' or '{'
+// open is held until the lines closing it arrive.
+class ReplSession {
+    private final Interpreter interpreter;
+    private final Resolver resolver = new Resolver();
+    private final boolean lazyBodies;
+    // an unfinished statement waiting for its closing brackets
+    private final StringBuilder pending = new StringBuilder();
+
+    ReplSession(Interpreter interpreter, boolean lazyBodies) {
+        this.interpreter = interpreter;
+        this.lazyBodies = lazyBodies;
+    }
+
+    // true while the last line left brackets open
+    boolean needsMore() {
+        return pending.length() > 0;
+    }
+
+    void line(String line) {
+        pending.append(line).append('\n');
+        List<Token> tokens = new Scanner(pending.toString()).scanTokens();
+        if (!Lox.hadError && isOpen(tokens)) {
+            return;
+        }
+        pending.setLength(0);
+
+        if (!Lox.hadError) {
+            run(tokens);
+        }
+        Lox.hadError = false;
+        Lox.hadRuntimeError = false;
+    }
+
+    private void run(List<Token> tokens) {
+        // the last token is always EOF
+        if (tokens.size() == 1) {
+            return;
+        }
+        TokenType last = tokens.get(tokens.size() - 2).type;
+        Parser parser = new Parser(tokens, lazyBodies);
+
+        if (last != TokenType.SEMICOLON && last != TokenType.RIGHT_BRACE) {
+            Expr expression = parser.tryParseExpressExpr();
+            if (expression == null || Lox.hadError) {
+                return;
+            }
+            resolver.resolve(expression);
+            if (Lox.hadError) {
+                return;
+            }
+            try {
+                interpreter.println(interpreter.stringify(interpreter.evaluate(expression)));
+            } catch (RuntimeError error) {
+                Lox.runtimeError(error);
+            }
+            return;
+        }
+
+        List<Stmt> statements = parser.parse();
+        if (Lox.hadError) {
+            return;
+        }
+        resolver.resolve(statements);
+        if (Lox.hadError) {
+            return;
+        }
+        interpreter.interpret(statements);
+    }
+
+    private static boolean isOpen(List<Token> tokens) {
+        int depth = 0;
+        for (Token token : tokens) {
+            switch (token.type) {
+                case LEFT_PAREN:
+                case LEFT_BRACE:
+                case LEFT_BRACKET:
+                    depth++;
+                    break;
+                case RIGHT_PAREN:
+                case RIGHT_BRACE:
+                case RIGHT_BRACKET:
+                    depth--;
+                    break;
+                default:
+                    break;
+            }
+        }
+        return depth > 0;
+    }
+}
@@ -1,5 +1,6 @@
 package com.craftinginterpreters.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -28,19 +29,27 @@ class Scope {
 }
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
     // private final Stack<Map<String, VarInfo>> scopes = new Stack<>();
     private final Stack<Scope> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private LoopType currentLoop = LoopType.NONE;
+    private ClassType currentClass = ClassType.NONE;
+    // for the current function: whether it yields, and its first return
+    // with a value, which a generator can't have
+    private boolean yielded = false;
+    private Token valueReturn = null;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    private enum FunctionType {
+        NONE,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
     }
 
-    private enum FunctionType {
+    private enum ClassType {
         NONE,
-        FUNCTION
+        CLASS,
+        SUBCLASS
     }
 
     private enum LoopType {
@@ -48,6 +57,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         LOOP
     }
 
+    // Resolves a top level function on its own, for bodies parsed after the
+    // rest of the script has been resolved
+    void resolveTopLevel(Stmt.Function function) {
+        resolveFunction(function, FunctionType.FUNCTION);
+    }
+
     void resolve(List<Stmt> statements) {
         for (Stmt statement : statements) {
             resolve(statement);
@@ -59,6 +74,42 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         beginScope();
         resolve(stmt.statements);
         endScope();
+        stmt.yields = LoxGenerator.yields(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        ClassType enclosingClass = currentClass;
+        currentClass = ClassType.CLASS;
+
+        declare(stmt.name);
+        define(stmt.name);
+
+        if (stmt.superclass != null) {
+            if (stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
+                Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+            }
+            currentClass = ClassType.SUBCLASS;
+            resolve(stmt.superclass);
+
+            beginScope();
+            defineImplicit("super", stmt.superclass.name);
+        }
+
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType declaration = FunctionType.METHOD;
+            if (method.name.lexeme.equals("init")) {
+                declaration = FunctionType.INITIALIZER;
+            }
+            resolveFunction(method, declaration);
+        }
+
+        if (stmt.superclass != null) {
+            endScope();
+        }
+
+        currentClass = enclosingClass;
         return null;
     }
 
@@ -73,7 +124,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         declare(stmt.name);
         define(stmt.name);
 
-        resolveFunction(stmt, FunctionType.FUNCTION);
+        // a lazily parsed body is resolved on its first call, see LazyBody
+        if (stmt.body != null) {
+            resolveFunction(stmt, FunctionType.FUNCTION);
+        }
         return null;
     }
 
@@ -91,12 +145,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         if (stmt.elseBranch != null) {
             resolve(stmt.elseBranch);
         }
+        stmt.yields = LoxGenerator.yields(stmt);
         return null;
     }
 
     @Override
     public Void visitPrintStmt(Stmt.Print stmt) {
         resolve(stmt.expression);
+        stmt.form = Superinstruction.of(stmt);
         return null;
     }
 
@@ -107,6 +163,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
 
         if (stmt.value != null) {
+            if (currentFunction == FunctionType.INITIALIZER) {
+                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+            }
+            if (valueReturn == null) {
+                valueReturn = stmt.keyword;
+            }
             resolve(stmt.value);
         }
 
@@ -122,6 +184,19 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        if (currentFunction == FunctionType.NONE) {
+            Lox.error(stmt.keyword, "Can't yield from top-level code.");
+        } else if (currentFunction == FunctionType.INITIALIZER) {
+            Lox.error(stmt.keyword, "Can't yield from an initializer.");
+        }
+        resolve(stmt.value);
+        yielded = true;
+        stmt.yields = LoxGenerator.yields(stmt);
+        return null;
+    }
+
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
         declare(stmt.name);
@@ -139,6 +214,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         resolve(stmt.condition);
         resolve(stmt.body);
+        stmt.yields = LoxGenerator.yields(stmt);
 
         currentLoop = enclosingLoop;
 
@@ -149,6 +225,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
         resolveLocal(expr, expr.name);
+        expr.form = Superinstruction.of(expr);
         return null;
     }
 
@@ -156,6 +233,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBinaryExpr(Expr.Binary expr) {
         resolve(expr.left);
         resolve(expr.right);
+        expr.form = Superinstruction.of(expr);
         return null;
     }
 
@@ -170,12 +248,33 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        resolve(expr.object);
+        return null;
+    }
+
     @Override
     public Void visitGroupingExpr(Expr.Grouping expr) {
         resolve(expr.expression);
         return null;
     }
 
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        resolve(expr.index);
+        return null;
+    }
+
     @Override
     public Void visitLiteralExpr(Expr.Literal expr) {
         return null;
@@ -188,6 +287,34 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        resolve(expr.value);
+        resolve(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        if (currentClass == ClassType.NONE) {
+            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+        } else if (currentClass != ClassType.SUBCLASS) {
+            Lox.error(expr.keyword, "Can't use 'super' in a class with no superclass.");
+        }
+        resolveLocal(expr, expr.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        if (currentClass == ClassType.NONE) {
+            Lox.error(expr.keyword, "Can't use 'this' outside of a class.");
+            return null;
+        }
+        resolveLocal(expr, expr.keyword);
+        return null;
+    }
+
     @Override
     public Void visitUnaryExpr(Expr.Unary expr) {
         resolve(expr.right);
@@ -196,11 +323,13 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().variables.get(expr.name.lexeme).initialised == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read local variable in its own initializer.");
+        if (!scopes.isEmpty()) {
+            VarInfo info = scopes.peek().variables.get(expr.name.lexeme);
+            if (info != null && !info.initialised) {
+                Lox.error(expr.name, "Can't read local variable in its own initializer.");
+            }
         }
         resolveLocal(expr, expr.name);
-        scopes.peek().variables.get(expr.name.lexeme).used = true;
         return null;
     }
 
@@ -208,27 +337,95 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         stmt.accept(this);
     }
 
-    private void resolve(Expr expr) {
-        expr.accept(this);
+    // also used for REPL lines that are a bare expression
+    void resolve(Expr expr) {
+        if (expr.deep) {
+            resolveIteratively(expr);
+        } else {
+            expr.accept(this);
+        }
+    }
+
+    // Same walk as the visit methods above, for expressions nested too deep to
+    // recurse over (see Parser.DEEP_NESTING). Children are pushed in reverse so
+    // they're still resolved left to right. Only variables, this and super do
+    // any work of their own, the rest just lead to their children.
+    private void resolveIteratively(Expr root) {
+        List<Expr> pending = new ArrayList<>();
+        pending.add(root);
+        while (!pending.isEmpty()) {
+            Expr expr = pending.remove(pending.size() - 1);
+            if (expr instanceof Expr.Binary) {
+                pending.add(((Expr.Binary) expr).right);
+                pending.add(((Expr.Binary) expr).left);
+            } else if (expr instanceof Expr.Logical) {
+                pending.add(((Expr.Logical) expr).right);
+                pending.add(((Expr.Logical) expr).left);
+            } else if (expr instanceof Expr.Grouping) {
+                pending.add(((Expr.Grouping) expr).expression);
+            } else if (expr instanceof Expr.Unary) {
+                pending.add(((Expr.Unary) expr).right);
+            } else if (expr instanceof Expr.Call) {
+                Expr.Call call = (Expr.Call) expr;
+                for (int i = call.arguments.size() - 1; i >= 0; i--) {
+                    pending.add(call.arguments.get(i));
+                }
+                pending.add(call.callee);
+            } else if (expr instanceof Expr.Assign) {
+                // recording the slot doesn't depend on the value
+                resolveLocal(expr, ((Expr.Assign) expr).name);
+                pending.add(((Expr.Assign) expr).value);
+            } else if (expr instanceof Expr.Get) {
+                pending.add(((Expr.Get) expr).object);
+            } else if (expr instanceof Expr.Set) {
+                pending.add(((Expr.Set) expr).object);
+                pending.add(((Expr.Set) expr).value);
+            } else if (expr instanceof Expr.Index) {
+                pending.add(((Expr.Index) expr).index);
+                pending.add(((Expr.Index) expr).object);
+            } else if (expr instanceof Expr.IndexSet) {
+                Expr.IndexSet indexSet = (Expr.IndexSet) expr;
+                pending.add(indexSet.index);
+                pending.add(indexSet.object);
+                pending.add(indexSet.value);
+            } else {
+                expr.accept(this);
+            }
+        }
     }
 
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        boolean enclosingYielded = yielded;
+        Token enclosingValueReturn = valueReturn;
+        yielded = false;
+        valueReturn = null;
 
         beginScope();
+        // methods get `this` in slot 0 of their own frame, see LoxFunction.callMethod
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            defineImplicit("this", function.name);
+        }
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         resolve(function.body);
         endScope();
+        checkGenerator();
         currentFunction = enclosingFunction;
+        yielded = enclosingYielded;
+        valueReturn = enclosingValueReturn;
     }
 
     private void resolveFunction(Expr.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
+        boolean enclosingYielded = yielded;
+        Token enclosingValueReturn = valueReturn;
+        yielded = false;
+        valueReturn = null;
 
         beginScope();
         for (Token param : function.params) {
@@ -237,7 +434,17 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
         resolve(function.body);
         endScope();
+        checkGenerator();
         currentFunction = enclosingFunction;
+        yielded = enclosingYielded;
+        valueReturn = enclosingValueReturn;
+    }
+
+    // a generator's return only ends it, there's nothing to take a value
+    private void checkGenerator() {
+        if (yielded && valueReturn != null) {
+            Lox.error(valueReturn, "Can't return a value from a generator.");
+        }
     }
 
     private void beginScope() {
@@ -268,6 +475,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scope.nextIndex++;
     }
 
+    // `this` and `super` are bound by the interpreter rather than declared in
+    // the source, they take the next slot and never count as unused
+    private void defineImplicit(String name, Token token) {
+        Scope scope = scopes.peek();
+        scope.variables.put(name, new VarInfo(true, true, token, scope.nextIndex));
+        scope.nextIndex++;
+    }
+
     // once declaration has passed, the variable can be used safely0
     private void define(Token name) {
         if (scopes.isEmpty()) {
@@ -276,10 +491,27 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.peek().variables.get(name.lexeme).initialised = true;
     }
 
+    // The slot is stored in the node itself rather than in a map on the
+    // interpreter, so it goes away with the tree (e.g. a finished REPL line)
     private void resolveLocal(Expr expr, Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
             if (scopes.get(i).variables.containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i, scopes.get(i).variables.get(name.lexeme).index);
+                int distance = scopes.size() - 1 - i;
+                int index = scopes.get(i).variables.get(name.lexeme).index;
+                if (expr instanceof Expr.Variable) {
+                    scopes.get(i).variables.get(name.lexeme).used = true;
+                    ((Expr.Variable) expr).distance = distance;
+                    ((Expr.Variable) expr).index = index;
+                } else if (expr instanceof Expr.Assign) {
+                    ((Expr.Assign) expr).distance = distance;
+                    ((Expr.Assign) expr).index = index;
+                } else if (expr instanceof Expr.This) {
+                    ((Expr.This) expr).distance = distance;
+                    ((Expr.This) expr).index = index;
+                } else {
+                    ((Expr.Super) expr).distance = distance;
+                    ((Expr.Super) expr).index = index;
+                }
                 return;
             }
             // if we walk through all the block scopes & dont find, leave unresolved &
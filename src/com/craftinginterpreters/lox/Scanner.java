@@ -12,6 +12,10 @@ class Scanner {
     private int start = 0;
     private int current = 0;
     private int line = 1;
+    // Powers of ten that are exact doubles, for the number() fast path
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8,
+            1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15 };
     private static final Map<String, TokenType> keywords;
     static {
         keywords = new HashMap<>();
@@ -32,6 +36,7 @@ class Scanner {
         keywords.put("var", VAR);
         keywords.put("while", WHILE);
         keywords.put("break", BREAK);
+        keywords.put("yield", YIELD);
     }
 
     Scanner(String source) {
@@ -64,6 +69,12 @@ class Scanner {
             case '}':
                 addToken(RIGHT_BRACE);
                 break;
+            case '[':
+                addToken(LEFT_BRACKET);
+                break;
+            case ']':
+                addToken(RIGHT_BRACKET);
+                break;
             case ',':
                 addToken(COMMA);
                 break;
@@ -161,17 +172,25 @@ class Scanner {
         while (isAlphaNumeric(peek())) {
             advance();
         }
-        String text = source.substring(start, current);
+        String text = StringTable.intern(source, start, current);
         TokenType type = keywords.get(text);
         if (type == null) {
             type = IDENTIFIER;
         }
-        addToken(type);
+        tokens.add(new Token(type, text, null, line));
     }
 
     private void number() {
+        // The value is accumulated while scanning. With at most 15 digits both
+        // the digits and 10^scale are exact doubles, so one division gives the
+        // correctly rounded value without the substring and parseDouble.
+        long digits = source.charAt(start) - '0';
+        int count = 1;
+        int scale = 0;
+
         while (isDigit(peek())) {
-            advance();
+            digits = digits * 10 + (advance() - '0');
+            count++;
         }
 
         // check for fractional part
@@ -180,12 +199,20 @@ class Scanner {
             advance();
 
             while (isDigit(peek())) {
-                advance();
+                digits = digits * 10 + (advance() - '0');
+                count++;
+                scale++;
             }
         }
 
-        addToken(NUMBER,
-                Double.parseDouble(source.substring(start, current)));
+        double value;
+        if (count < POW10.length) {
+            value = digits / POW10[scale];
+        } else {
+            // too many digits for the fast path (digits may even have overflowed)
+            value = Double.parseDouble(source.substring(start, current));
+        }
+        addToken(NUMBER, value);
 
     }
 
@@ -204,7 +231,7 @@ class Scanner {
 
         advance();
 
-        String value = source.substring(start + 1, current - 1);
+        String value = StringTable.intern(source, start + 1, current - 1);
         addToken(STRING, value);
     }
 
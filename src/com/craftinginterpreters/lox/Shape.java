@@ -0,0 +1,52 @@
+package com.craftinginterpreters.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Hidden class describing where an instance keeps its fields.
+// Instances start at EMPTY and move along transitions as fields are added, so
+// instances that get the same fields in the same order share one Shape and a
+// field lives at the same slot in all of them. That is what lets a property
+// access site cache (shape, slot) and skip the name lookup, see PropertyCache.
+class Shape {
+    static final Shape EMPTY = new Shape(new HashMap<>());
+
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    private Shape(Map<String, Integer> slots) {
+        this.slots = slots;
+    }
+
+    // Number of fields, which is also the slot the next field goes in
+    int size() {
+        return slots.size();
+    }
+
+    int slot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    // Field names in slot order
+    String[] names() {
+        String[] names = new String[slots.size()];
+        for (Map.Entry<String, Integer> entry : slots.entrySet()) {
+            names[entry.getValue()] = entry.getKey();
+        }
+        return names;
+    }
+
+    // Shape after adding a field, shared by everything taking the same step.
+    // Synchronized since workers (see ParallelNatives) add fields too.
+    synchronized Shape with(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            Map<String, Integer> nextSlots = new HashMap<>(slots);
+            nextSlots.put(name, slots.size());
+            next = new Shape(nextSlots);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
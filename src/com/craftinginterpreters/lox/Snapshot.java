@@ -0,0 +1,1105 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Binary image of the global environment, e.g. after running a prelude:
+//   jlox --save-snapshot=prelude.img prelude.lox
+//   jlox --snapshot=prelude.img script.lox
+// Restoring the image defines the same globals without scanning, parsing,
+// resolving or running the prelude again.
+//
+// The image holds every object reachable from the globals (functions with
+// their closures and resolved ASTs, classes, instances, arrays, maps) as a
+// table. Objects come in an order where whatever one needs at construction
+// (a function's closure, an instance's class, a class's methods...) is
+// already built, then come the mutable contents (environment slots, fields,
+// elements), which may point anywhere in the table, cycles included.
+// Natives aren't written, they're looked up by name in the restoring
+// interpreter. Lazy function bodies stay lazy, only their tokens are written.
+class Snapshot {
+    private static final int MAGIC = 0x4C4F5853; // "LOXS"
+    private static final int VERSION = 1;
+    // ASTs are written and read recursively, deep expression trees need
+    // more than the default stack
+    private static final long STACK_SIZE = 1L << 30;
+
+    // value tags
+    private static final byte NIL = 0;
+    private static final byte TRUE = 1;
+    private static final byte FALSE = 2;
+    private static final byte NUMBER = 3;
+    private static final byte STRING = 4;
+    private static final byte UNINITIALISED = 5;
+    private static final byte NATIVE = 6;
+    private static final byte GLOBALS = 7;
+    private static final byte OBJECT = 8;
+
+    // object table tags
+    private static final byte ENVIRONMENT = 0;
+    private static final byte FUNCTION = 1;
+    private static final byte CLASS = 2;
+    private static final byte INSTANCE = 3;
+    private static final byte ARRAY = 4;
+    private static final byte MAP = 5;
+
+    // function body forms
+    private static final byte PARSED = 0;
+    private static final byte LAZY = 1;
+    private static final byte SHARED = 2;
+
+    private interface Work {
+        void run() throws IOException;
+    }
+
+    static void save(Interpreter interpreter, String path) throws IOException {
+        onLargeStack(() -> {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(Paths.get(path))))) {
+                new Writer(interpreter.globals, out).write();
+            }
+        });
+    }
+
+    static void restore(Interpreter interpreter, String path) throws IOException {
+        if (!Files.isReadable(Paths.get(path))) {
+            throw new IOException("Can't read the file.");
+        }
+        onLargeStack(() -> {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(Files.newInputStream(Paths.get(path))))) {
+                new Reader(interpreter.globals, in).read();
+            }
+        });
+    }
+
+    private static void onLargeStack(Work work) throws IOException {
+        IOException[] failure = new IOException[1];
+        RuntimeException[] crash = new RuntimeException[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                work.run();
+            } catch (IOException e) {
+                failure[0] = e;
+            } catch (RuntimeException e) {
+                crash[0] = e;
+            }
+        }, "snapshot", STACK_SIZE);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted.");
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        if (crash[0] != null) {
+            throw crash[0];
+        }
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final Environment globals;
+        private final DataOutputStream out;
+        private final Map<Object, Integer> ids = new IdentityHashMap<>();
+        private final List<Object> objects = new ArrayList<>();
+        private final Map<String, Integer> strings = new HashMap<>();
+        private final Map<Object, Integer> bodies = new IdentityHashMap<>();
+
+        Writer(Environment globals, DataOutputStream out) {
+            this.globals = globals;
+            this.out = out;
+        }
+
+        void write() throws IOException {
+            // globals that are still the interpreter's own natives are
+            // recreated anyway
+            Map<String, Object> entries = new LinkedHashMap<>();
+            for (Map.Entry<String, Object> entry : globals.globalValues.entrySet()) {
+                Object value = entry.getValue();
+                if (!(value instanceof NativeFunction
+                        && ((NativeFunction) value).name.equals(entry.getKey()))) {
+                    entries.put(entry.getKey(), value == Environment.NIL ? null : value);
+                }
+            }
+
+            order(reachable(entries.values()));
+
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(objects.size());
+            for (Object object : objects) {
+                writeObject(object);
+            }
+            for (Object object : objects) {
+                writeContents(object);
+            }
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Object> entry : entries.entrySet()) {
+                writeString(entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        // Everything reachable from the roots, walked with a worklist since
+        // object graphs (e.g. long linked lists) can be deep
+        private List<Object> reachable(Iterable<Object> roots) throws IOException {
+            Map<Object, Boolean> seen = new IdentityHashMap<>();
+            List<Object> found = new ArrayList<>();
+            List<Object> pending = new ArrayList<>();
+            for (Object root : roots) {
+                pending.add(root);
+            }
+            while (!pending.isEmpty()) {
+                Object object = pending.remove(pending.size() - 1);
+                if (!isObject(object) || seen.put(object, true) != null) {
+                    continue;
+                }
+                found.add(object);
+
+                if (object instanceof Environment) {
+                    Environment environment = (Environment) object;
+                    pending.add(environment.enclosing);
+                    pending.addAll(environment.values);
+                } else if (object instanceof LoxFunction) {
+                    LoxFunction function = (LoxFunction) object;
+                    pending.add(function.closure);
+                    pending.add(function.receiver);
+                } else if (object instanceof LoxClass) {
+                    LoxClass klass = (LoxClass) object;
+                    pending.add(klass.superclass);
+                    pending.addAll(klass.methods.values());
+                } else if (object instanceof LoxInstance) {
+                    LoxInstance instance = (LoxInstance) object;
+                    pending.add(instance.klass);
+                    for (int i = 0; i < instance.shape.size(); i++) {
+                        pending.add(instance.fields[i]);
+                    }
+                } else if (object instanceof LoxArray) {
+                    LoxArray array = (LoxArray) object;
+                    for (int i = 0; i < array.size(); i++) {
+                        pending.add(array.get(i));
+                    }
+                } else if (object instanceof LoxMap) {
+                    LoxMap map = (LoxMap) object;
+                    LoxArray keys = map.keys();
+                    for (int i = 0; i < keys.size(); i++) {
+                        pending.add(map.get(keys.get(i)));
+                    }
+                }
+            }
+            return found;
+        }
+
+        // Objects the image gives an id to, everything else is written inline
+        private boolean isObject(Object value) throws IOException {
+            if (value == null || value == globals || value == Environment.UNINTIALISED
+                    || value instanceof Boolean || value instanceof Double
+                    || value instanceof CharSequence || value instanceof NativeFunction) {
+                return false;
+            }
+            if (value instanceof Environment || value instanceof LoxFunction
+                    || value instanceof LoxClass || value instanceof LoxInstance
+                    || value instanceof LoxArray || value instanceof LoxMap) {
+                return true;
+            }
+            throw new IOException("Can't snapshot " + value + ".");
+        }
+
+        // Numbers objects so anything needed to construct an object comes
+        // before it. Those edges never form a cycle: closures and enclosing
+        // environments lead out to the globals, a method's receiver is an
+        // instance, an instance's class leads to its methods.
+        private void order(List<Object> found) throws IOException {
+            for (Object object : found) {
+                visit(object);
+            }
+        }
+
+        private void visit(Object object) throws IOException {
+            if (!isObject(object) || ids.containsKey(object)) {
+                return;
+            }
+            if (object instanceof Environment) {
+                visit(((Environment) object).enclosing);
+            } else if (object instanceof LoxFunction) {
+                visit(((LoxFunction) object).closure);
+                visit(((LoxFunction) object).receiver);
+            } else if (object instanceof LoxClass) {
+                visit(((LoxClass) object).superclass);
+                for (LoxFunction method : ((LoxClass) object).methods.values()) {
+                    visit(method);
+                }
+            } else if (object instanceof LoxInstance) {
+                visit(((LoxInstance) object).klass);
+            }
+            ids.put(object, objects.size());
+            objects.add(object);
+        }
+
+        private void writeObject(Object object) throws IOException {
+            if (object instanceof Environment) {
+                out.writeByte(ENVIRONMENT);
+                writeValue(((Environment) object).enclosing);
+            } else if (object instanceof LoxFunction) {
+                LoxFunction function = (LoxFunction) object;
+                out.writeByte(FUNCTION);
+                out.writeBoolean(function.name != null);
+                if (function.name != null) {
+                    writeString(function.name);
+                }
+                writeTokens(function.params);
+                writeBody(function);
+                writeValue(function.closure);
+                out.writeBoolean(function.isMethod);
+                out.writeBoolean(function.isInitializer);
+                writeValue(function.receiver);
+            } else if (object instanceof LoxClass) {
+                LoxClass klass = (LoxClass) object;
+                out.writeByte(CLASS);
+                writeString(klass.name);
+                writeValue(klass.superclass);
+                out.writeInt(klass.methods.size());
+                for (Map.Entry<String, LoxFunction> method : klass.methods.entrySet()) {
+                    writeString(method.getKey());
+                    writeValue(method.getValue());
+                }
+            } else if (object instanceof LoxInstance) {
+                out.writeByte(INSTANCE);
+                writeValue(((LoxInstance) object).klass);
+            } else if (object instanceof LoxArray) {
+                out.writeByte(ARRAY);
+            } else {
+                out.writeByte(MAP);
+            }
+        }
+
+        private void writeContents(Object object) throws IOException {
+            if (object instanceof Environment) {
+                List<Object> values = ((Environment) object).values;
+                out.writeInt(values.size());
+                for (Object value : values) {
+                    writeValue(value);
+                }
+            } else if (object instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance) object;
+                String[] names = instance.shape.names();
+                out.writeInt(names.length);
+                for (int i = 0; i < names.length; i++) {
+                    writeString(names[i]);
+                    writeValue(instance.fields[i]);
+                }
+            } else if (object instanceof LoxArray) {
+                LoxArray array = (LoxArray) object;
+                out.writeInt(array.size());
+                for (int i = 0; i < array.size(); i++) {
+                    writeValue(array.get(i));
+                }
+            } else if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap) object;
+                LoxArray keys = map.keys();
+                out.writeInt(keys.size());
+                for (int i = 0; i < keys.size(); i++) {
+                    writeValue(keys.get(i));
+                    writeValue(map.get(keys.get(i)));
+                }
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NIL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Double) {
+                out.writeByte(NUMBER);
+                out.writeDouble((double) value);
+            } else if (value instanceof CharSequence) {
+                out.writeByte(STRING);
+                writeString(value.toString());
+            } else if (value == Environment.UNINTIALISED) {
+                out.writeByte(UNINITIALISED);
+            } else if (value instanceof NativeFunction) {
+                out.writeByte(NATIVE);
+                writeString(((NativeFunction) value).name);
+            } else if (value == globals) {
+                out.writeByte(GLOBALS);
+            } else {
+                out.writeByte(OBJECT);
+                out.writeInt(ids.get(value));
+            }
+        }
+
+        // Each distinct string is written once, later uses are its index
+        private void writeString(String string) throws IOException {
+            Integer index = strings.get(string);
+            if (index != null) {
+                out.writeInt(index);
+                return;
+            }
+            strings.put(string, strings.size());
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(-1);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeToken(Token token) throws IOException {
+            out.writeShort(token.type.ordinal());
+            writeString(token.lexeme);
+            writeValue(token.literal);
+            out.writeInt(token.line);
+        }
+
+        private void writeTokens(List<Token> tokens) throws IOException {
+            out.writeInt(tokens.size());
+            for (Token token : tokens) {
+                writeToken(token);
+            }
+        }
+
+        // Functions made from the same declaration share one body (or one
+        // LazyBody), so it's only written the first time
+        private void writeBody(LoxFunction function) throws IOException {
+            Object body = function.body != null ? function.body : function.lazyBody;
+            Integer shared = bodies.get(body);
+            if (shared != null) {
+                out.writeByte(SHARED);
+                out.writeInt(shared);
+                return;
+            }
+            bodies.put(body, bodies.size());
+
+            if (function.body != null) {
+                out.writeByte(PARSED);
+                writeStatements(function.body);
+            } else {
+                out.writeByte(LAZY);
+                writeToken(function.lazyBody.name);
+                writeTokens(function.lazyBody.params);
+                writeTokens(function.lazyBody.tokens());
+            }
+        }
+
+        private void writeStatements(List<Stmt> statements) throws IOException {
+            out.writeInt(statements.size());
+            for (Stmt statement : statements) {
+                writeStmt(statement);
+            }
+        }
+
+        private void writeStmt(Stmt stmt) throws IOException {
+            if (stmt == null) {
+                out.writeByte(-1);
+                return;
+            }
+            try {
+                stmt.accept(this);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void writeExpr(Expr expr) throws IOException {
+            if (expr == null) {
+                out.writeByte(-1);
+                return;
+            }
+            try {
+                expr.accept(this);
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+
+        // The visitor methods can't throw IOException, they wrap it in this
+        private void node(NodeWriter writer) {
+            try {
+                writer.write();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void slot(int distance, int index) throws IOException {
+            out.writeInt(distance);
+            out.writeInt(index);
+        }
+
+        private void expr(Expr expr, int tag) throws IOException {
+            out.writeByte(tag);
+            out.writeBoolean(expr.deep);
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            node(() -> {
+                expr(expr, 0);
+                writeToken(expr.name);
+                writeExpr(expr.value);
+                slot(expr.distance, expr.index);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            node(() -> {
+                expr(expr, 1);
+                writeExpr(expr.left);
+                writeToken(expr.operator);
+                writeExpr(expr.right);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            node(() -> {
+                expr(expr, 2);
+                writeExpr(expr.callee);
+                writeToken(expr.paren);
+                out.writeInt(expr.arguments.size());
+                for (Expr argument : expr.arguments) {
+                    writeExpr(argument);
+                }
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionExpr(Expr.Function expr) {
+            node(() -> {
+                expr(expr, 3);
+                writeTokens(expr.params);
+                writeStatements(expr.body);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitGetExpr(Expr.Get expr) {
+            node(() -> {
+                expr(expr, 4);
+                writeExpr(expr.object);
+                writeToken(expr.name);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            node(() -> {
+                expr(expr, 5);
+                writeExpr(expr.expression);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitIndexExpr(Expr.Index expr) {
+            node(() -> {
+                expr(expr, 6);
+                writeExpr(expr.object);
+                writeToken(expr.bracket);
+                writeExpr(expr.index);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitIndexSetExpr(Expr.IndexSet expr) {
+            node(() -> {
+                expr(expr, 7);
+                writeExpr(expr.object);
+                writeToken(expr.bracket);
+                writeExpr(expr.index);
+                writeExpr(expr.value);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            node(() -> {
+                expr(expr, 8);
+                writeValue(expr.value);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            node(() -> {
+                expr(expr, 9);
+                writeExpr(expr.left);
+                writeToken(expr.operator);
+                writeExpr(expr.right);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitSetExpr(Expr.Set expr) {
+            node(() -> {
+                expr(expr, 10);
+                writeExpr(expr.object);
+                writeToken(expr.name);
+                writeExpr(expr.value);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitSuperExpr(Expr.Super expr) {
+            node(() -> {
+                expr(expr, 11);
+                writeToken(expr.keyword);
+                writeToken(expr.method);
+                slot(expr.distance, expr.index);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitThisExpr(Expr.This expr) {
+            node(() -> {
+                expr(expr, 12);
+                writeToken(expr.keyword);
+                slot(expr.distance, expr.index);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            node(() -> {
+                expr(expr, 13);
+                writeToken(expr.operator);
+                writeExpr(expr.right);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            node(() -> {
+                expr(expr, 14);
+                writeToken(expr.name);
+                slot(expr.distance, expr.index);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            node(() -> {
+                out.writeByte(0);
+                writeStatements(stmt.statements);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitClassStmt(Stmt.Class stmt) {
+            node(() -> {
+                out.writeByte(1);
+                writeToken(stmt.name);
+                writeExpr(stmt.superclass);
+                out.writeInt(stmt.methods.size());
+                for (Stmt.Function method : stmt.methods) {
+                    writeStmt(method);
+                }
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            node(() -> {
+                out.writeByte(2);
+                writeExpr(stmt.expression);
+            });
+            return null;
+        }
+
+        // Only functions nested in a body get here, and those are never lazy
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            node(() -> {
+                out.writeByte(3);
+                writeToken(stmt.name);
+                writeTokens(stmt.params);
+                writeStatements(stmt.body);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            node(() -> {
+                out.writeByte(4);
+                writeExpr(stmt.condition);
+                writeStmt(stmt.thenBranch);
+                writeStmt(stmt.elseBranch);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitPrintStmt(Stmt.Print stmt) {
+            node(() -> {
+                out.writeByte(5);
+                writeExpr(stmt.expression);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            node(() -> {
+                out.writeByte(6);
+                writeToken(stmt.keyword);
+                writeExpr(stmt.value);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitVarStmt(Stmt.Var stmt) {
+            node(() -> {
+                out.writeByte(7);
+                writeToken(stmt.name);
+                writeExpr(stmt.initializer);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            node(() -> {
+                out.writeByte(8);
+                writeExpr(stmt.condition);
+                writeStmt(stmt.body);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            node(() -> {
+                out.writeByte(9);
+                writeToken(stmt.keyword);
+            });
+            return null;
+        }
+
+        @Override
+        public Void visitYieldStmt(Stmt.Yield stmt) {
+            node(() -> {
+                out.writeByte(10);
+                writeToken(stmt.keyword);
+                writeExpr(stmt.value);
+            });
+            return null;
+        }
+    }
+
+    private interface NodeWriter {
+        void write() throws IOException;
+    }
+
+    private static class Reader {
+        private final Environment globals;
+        private final DataInputStream in;
+        private final Map<String, NativeFunction> natives = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+        private final List<Object> bodies = new ArrayList<>();
+        private Object[] objects;
+
+        Reader(Environment globals, DataInputStream in) {
+            this.globals = globals;
+            this.in = in;
+            for (Object value : globals.globalValues.values()) {
+                if (value instanceof NativeFunction) {
+                    natives.put(((NativeFunction) value).name, (NativeFunction) value);
+                }
+            }
+        }
+
+        void read() throws IOException {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a snapshot image from this version of jlox.");
+            }
+
+            objects = new Object[in.readInt()];
+            for (int i = 0; i < objects.length; i++) {
+                objects[i] = readObject();
+            }
+            for (Object object : objects) {
+                readContents(object);
+            }
+            // stored as is, define() would turn nil into uninitialised
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = readString();
+                Object value = readValue();
+                globals.globalValues.put(name, value == null ? Environment.NIL : value);
+            }
+        }
+
+        private Object readObject() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case ENVIRONMENT:
+                    return new Environment((Environment) readValue());
+                case FUNCTION: {
+                    String name = in.readBoolean() ? readString() : null;
+                    List<Token> params = readTokens();
+                    Object body = readBody();
+                    Environment closure = (Environment) readValue();
+                    boolean isMethod = in.readBoolean();
+                    boolean isInitializer = in.readBoolean();
+                    LoxInstance receiver = (LoxInstance) readValue();
+                    if (body instanceof LazyBody) {
+                        return new LoxFunction(name, params, null, (LazyBody) body, closure,
+                                isMethod, isInitializer, receiver);
+                    }
+                    @SuppressWarnings("unchecked")
+                    List<Stmt> statements = (List<Stmt>) body;
+                    return new LoxFunction(name, params, statements, null, closure,
+                            isMethod, isInitializer, receiver);
+                }
+                case CLASS: {
+                    String name = readString();
+                    LoxClass superclass = (LoxClass) readValue();
+                    Map<String, LoxFunction> methods = new HashMap<>();
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String method = readString();
+                        methods.put(method, (LoxFunction) readValue());
+                    }
+                    return new LoxClass(name, superclass, methods);
+                }
+                case INSTANCE:
+                    return new LoxInstance((LoxClass) readValue());
+                case ARRAY:
+                    return new LoxArray();
+                case MAP:
+                    return new LoxMap();
+                default:
+                    throw new IOException("Corrupt snapshot image.");
+            }
+        }
+
+        private void readContents(Object object) throws IOException {
+            if (object instanceof Environment) {
+                List<Object> values = ((Environment) object).values;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    values.add(readValue());
+                }
+            } else if (object instanceof LoxInstance) {
+                LoxInstance instance = (LoxInstance) object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Shape next = instance.shape.with(readString());
+                    instance.addField(next, i, readValue());
+                }
+            } else if (object instanceof LoxArray) {
+                LoxArray array = (LoxArray) object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    array.push(readValue());
+                }
+            } else if (object instanceof LoxMap) {
+                LoxMap map = (LoxMap) object;
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    Object key = readValue();
+                    map.set(key, readValue());
+                }
+            }
+        }
+
+        private Object readValue() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case NIL:
+                    return null;
+                case TRUE:
+                    return true;
+                case FALSE:
+                    return false;
+                case NUMBER:
+                    return in.readDouble();
+                case STRING:
+                    return readString();
+                case UNINITIALISED:
+                    return Environment.UNINTIALISED;
+                case NATIVE: {
+                    String name = readString();
+                    NativeFunction function = natives.get(name);
+                    if (function == null) {
+                        throw new IOException("Snapshot uses unknown native '" + name + "'.");
+                    }
+                    return function;
+                }
+                case GLOBALS:
+                    return globals;
+                case OBJECT: {
+                    int id = in.readInt();
+                    if (id < 0 || id >= objects.length || objects[id] == null) {
+                        throw new IOException("Corrupt snapshot image.");
+                    }
+                    return objects[id];
+                }
+                default:
+                    throw new IOException("Corrupt snapshot image.");
+            }
+        }
+
+        private String readString() throws IOException {
+            int index = in.readInt();
+            if (index >= 0) {
+                return strings.get(index);
+            }
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            // shared with the same text in the script run after the restore
+            String string = StringTable.intern(new String(bytes, StandardCharsets.UTF_8));
+            strings.add(string);
+            return string;
+        }
+
+        private Token readToken() throws IOException {
+            TokenType type = TokenType.values()[in.readShort()];
+            String lexeme = readString();
+            Object literal = readValue();
+            return new Token(type, lexeme, literal, in.readInt());
+        }
+
+        private List<Token> readTokens() throws IOException {
+            int count = in.readInt();
+            List<Token> tokens = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tokens.add(readToken());
+            }
+            return tokens;
+        }
+
+        // a List<Stmt> or a LazyBody
+        private Object readBody() throws IOException {
+            byte form = in.readByte();
+            if (form == SHARED) {
+                return bodies.get(in.readInt());
+            }
+
+            Object body;
+            if (form == PARSED) {
+                body = readStatements();
+            } else {
+                Token name = readToken();
+                List<Token> params = readTokens();
+                List<Token> tokens = readTokens();
+                body = new LazyBody(tokens, 0, tokens.size() - 1, name, params);
+            }
+            bodies.add(body);
+            return body;
+        }
+
+        private List<Stmt> readStatements() throws IOException {
+            int count = in.readInt();
+            List<Stmt> statements = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                statements.add(readStmt());
+            }
+            return statements;
+        }
+
+        // Stmt.yields isn't written, it follows from the children
+        private Stmt readStmt() throws IOException {
+            Stmt stmt = readStmtNode();
+            if (stmt != null) {
+                stmt.yields = LoxGenerator.yields(stmt);
+            }
+            return stmt;
+        }
+
+        private Stmt readStmtNode() throws IOException {
+            byte tag = in.readByte();
+            switch (tag) {
+                case -1:
+                    return null;
+                case 0:
+                    return new Stmt.Block(readStatements());
+                case 1: {
+                    Token name = readToken();
+                    Expr.Variable superclass = (Expr.Variable) readExpr();
+                    int count = in.readInt();
+                    List<Stmt.Function> methods = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        methods.add((Stmt.Function) readStmt());
+                    }
+                    return new Stmt.Class(name, superclass, methods);
+                }
+                case 2:
+                    return new Stmt.Expression(readExpr());
+                case 3: {
+                    Token name = readToken();
+                    List<Token> params = readTokens();
+                    return new Stmt.Function(name, params, readStatements());
+                }
+                case 4: {
+                    Expr condition = readExpr();
+                    Stmt thenBranch = readStmt();
+                    return new Stmt.If(condition, thenBranch, readStmt());
+                }
+                case 5:
+                    return new Stmt.Print(readExpr());
+                case 6: {
+                    Token keyword = readToken();
+                    return new Stmt.Return(keyword, readExpr());
+                }
+                case 7: {
+                    Token name = readToken();
+                    return new Stmt.Var(name, readExpr());
+                }
+                case 8: {
+                    Expr condition = readExpr();
+                    return new Stmt.While(condition, readStmt());
+                }
+                case 9:
+                    return new Stmt.Break(readToken());
+                case 10: {
+                    Token keyword = readToken();
+                    return new Stmt.Yield(keyword, readExpr());
+                }
+                default:
+                    throw new IOException("Corrupt snapshot image.");
+            }
+        }
+
+        private Expr readExpr() throws IOException {
+            byte tag = in.readByte();
+            if (tag == -1) {
+                return null;
+            }
+            boolean deep = in.readBoolean();
+            Expr expr;
+            switch (tag) {
+                case 0: {
+                    Expr.Assign assign = new Expr.Assign(readToken(), readExpr());
+                    assign.distance = in.readInt();
+                    assign.index = in.readInt();
+                    expr = assign;
+                    break;
+                }
+                case 1: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    expr = new Expr.Binary(left, operator, readExpr());
+                    break;
+                }
+                case 2: {
+                    Expr callee = readExpr();
+                    Token paren = readToken();
+                    int count = in.readInt();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        arguments.add(readExpr());
+                    }
+                    expr = new Expr.Call(callee, paren, arguments);
+                    break;
+                }
+                case 3: {
+                    List<Token> params = readTokens();
+                    expr = new Expr.Function(params, readStatements());
+                    break;
+                }
+                case 4: {
+                    Expr object = readExpr();
+                    expr = new Expr.Get(object, readToken());
+                    break;
+                }
+                case 5:
+                    expr = new Expr.Grouping(readExpr());
+                    break;
+                case 6: {
+                    Expr object = readExpr();
+                    Token bracket = readToken();
+                    expr = new Expr.Index(object, bracket, readExpr());
+                    break;
+                }
+                case 7: {
+                    Expr object = readExpr();
+                    Token bracket = readToken();
+                    Expr index = readExpr();
+                    expr = new Expr.IndexSet(object, bracket, index, readExpr());
+                    break;
+                }
+                case 8:
+                    expr = new Expr.Literal(readValue());
+                    break;
+                case 9: {
+                    Expr left = readExpr();
+                    Token operator = readToken();
+                    expr = new Expr.Logical(left, operator, readExpr());
+                    break;
+                }
+                case 10: {
+                    Expr object = readExpr();
+                    Token name = readToken();
+                    expr = new Expr.Set(object, name, readExpr());
+                    break;
+                }
+                case 11: {
+                    Token keyword = readToken();
+                    Expr.Super superExpr = new Expr.Super(keyword, readToken());
+                    superExpr.distance = in.readInt();
+                    superExpr.index = in.readInt();
+                    expr = superExpr;
+                    break;
+                }
+                case 12: {
+                    Expr.This thisExpr = new Expr.This(readToken());
+                    thisExpr.distance = in.readInt();
+                    thisExpr.index = in.readInt();
+                    expr = thisExpr;
+                    break;
+                }
+                case 13: {
+                    Token operator = readToken();
+                    expr = new Expr.Unary(operator, readExpr());
+                    break;
+                }
+                case 14: {
+                    Expr.Variable variable = new Expr.Variable(readToken());
+                    variable.distance = in.readInt();
+                    variable.index = in.readInt();
+                    expr = variable;
+                    break;
+                }
+                default:
+                    throw new IOException("Corrupt snapshot image.");
+            }
+            expr.deep = deep;
+            return expr;
+        }
+    }
+}
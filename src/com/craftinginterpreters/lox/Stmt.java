@@ -6,6 +6,8 @@ abstract class Stmt {
   interface Visitor<R> {
     R visitBlockStmt(Block stmt);
 
+    R visitClassStmt(Class stmt);
+
     R visitExpressionStmt(Expression stmt);
 
     R visitFunctionStmt(Function stmt);
@@ -21,6 +23,8 @@ abstract class Stmt {
     R visitWhileStmt(While stmt);
 
     R visitBreakStmt(Break stmt);
+
+    R visitYieldStmt(Yield stmt);
   }
 
   static class Block extends Stmt {
@@ -36,6 +40,23 @@ abstract class Stmt {
     }
   }
 
+  static class Class extends Stmt {
+    Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
+      this.name = name;
+      this.superclass = superclass;
+      this.methods = methods;
+    }
+
+    final Token name;
+    final Expr.Variable superclass;
+    final List<Stmt.Function> methods;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitClassStmt(this);
+    }
+  }
+
   static class Expression extends Stmt {
     Expression(Expr expression) {
       this.expression = expression;
@@ -60,6 +81,8 @@ abstract class Stmt {
     final List<Token> params;
     final List<Stmt> body;
 
+    LazyBody lazyBody;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionStmt(this);
@@ -90,6 +113,8 @@ abstract class Stmt {
 
     final Expr expression;
 
+    Superinstruction form = Superinstruction.NONE;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitPrintStmt(this);
@@ -135,6 +160,8 @@ abstract class Stmt {
     final Expr condition;
     final Stmt body;
 
+    int invariants;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitWhileStmt(this);
@@ -154,5 +181,25 @@ abstract class Stmt {
     }
   }
 
+  static class Yield extends Stmt {
+    Yield(Token keyword, Expr value) {
+      this.keyword = keyword;
+      this.value = value;
+    }
+
+    final Token keyword;
+    final Expr value;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitYieldStmt(this);
+    }
+  }
+
+  // Execution count, only maintained when the interpreter is profiling.
+  long hits;
+  // A yield of the enclosing function runs somewhere inside, see LoxGenerator.
+  boolean yields;
+
   abstract <R> R accept(Visitor<R> visitor);
 }
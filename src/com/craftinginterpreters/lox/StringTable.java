@@ -0,0 +1,79 @@
+package com.craftinginterpreters.lox;
+
+// Shared copies of the identifiers and string literals the Scanner reads.
+// Every occurrence of the same text gets the same String, so the scanner
+// doesn't cut a new substring for text it has seen before, and names and
+// literals compared later (==, map keys, globals, properties) usually match on
+// identity before any characters are looked at. Punctuation and numbers keep
+// plain substrings: nothing compares their lexemes, and looking them up cost
+// more than it saved.
+//
+// Open addressing over the source text itself: a lookup hashes and compares
+// the characters in place and only copies them out on a miss. The table is a
+// cache, past MAX_SIZE it starts again empty so a long REPL session can't
+// grow it forever. Strings handed out earlier stay valid, they just stop being
+// shared with later ones.
+class StringTable {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_SIZE = 1 << 16;
+
+    private static String[] strings = new String[INITIAL_CAPACITY];
+    private static int size = 0;
+
+    // The shared String for source[start, end)
+    static synchronized String intern(String source, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        // the same hash String.hashCode() caches, so a hit compares lengths
+        // and hashes before any characters
+        int length = end - start;
+        int mask = strings.length - 1;
+        int index = spread(hash) & mask;
+        while (strings[index] != null) {
+            String candidate = strings[index];
+            if (candidate.hashCode() == hash && candidate.length() == length
+                    && candidate.regionMatches(0, source, start, length)) {
+                return candidate;
+            }
+            index = (index + 1) & mask;
+        }
+
+        String string = source.substring(start, end);
+        strings[index] = string;
+        size++;
+        if (size >= MAX_SIZE) {
+            strings = new String[INITIAL_CAPACITY];
+            size = 0;
+        } else if (size * 2 > strings.length) {
+            grow();
+        }
+        return string;
+    }
+
+    static String intern(String string) {
+        return intern(string, 0, string.length());
+    }
+
+    private static void grow() {
+        String[] old = strings;
+        strings = new String[old.length * 2];
+        int mask = strings.length - 1;
+        for (String string : old) {
+            if (string == null) {
+                continue;
+            }
+            int index = spread(string.hashCode()) & mask;
+            while (strings[index] != null) {
+                index = (index + 1) & mask;
+            }
+            strings[index] = string;
+        }
+    }
+
+    private static int spread(int hash) {
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
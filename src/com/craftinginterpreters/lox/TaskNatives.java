@@ -0,0 +1,151 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Tasks and channels, so a script can run stages side by side:
+//   spawn(fn)            runs fn() as a task of its own, returns the task
+//   join(task)           waits for the task, returns what fn returned. If fn
+//                        failed the error is reported when it happens, and
+//                        join fails too
+//   channel(capacity)    new channel holding up to capacity values
+//   send(channel, value) waits for room, then queues the value
+//   receive(channel)     waits for a value, nil once closed and drained
+//   close(channel)       no more sends, see LoxChannel
+// A task runs with a worker Interpreter of its own, so its frames, loop values
+// and current environment are its own while globals and captured variables
+// are shared. Arrays, maps and instances aren't locked: pass them from task to
+// task through channels rather than changing one from two tasks at once.
+//
+// Tasks are virtual threads where the JDK has them (21 on) and daemon threads
+// otherwise. The program ends with the main script, finished tasks or not.
+class TaskNatives {
+    // Thread.startVirtualThread, null before it existed
+    private static final Method START_VIRTUAL = startVirtualMethod();
+    // Tasks spawned and not finished yet. While there are any, another thread
+    // can change what a running loop reads, so the interpreter stops reusing
+    // the values of Hoisted expressions (see LoopOptimizer). Once the count is
+    // back to 0 reusing them is safe again: the tasks' writes happened before
+    // the decrement, and no new task can start without a spawn call on this
+    // thread. A loop making that call has calls, so the only values it keeps
+    // are of locals no closure assigns, which no task can change either.
+    private static final AtomicInteger running = new AtomicInteger();
+
+    static void define(Environment globals) {
+        NativeFunction.define(globals, "spawn", 1, (interpreter, arguements) -> {
+            LoxCallable function = NativeFunction.callable(arguements.get(0), "Spawned value");
+            if (function.arity() != 0) {
+                throw new NativeError("Spawned function must take no arguements.");
+            }
+            LoxTask task = new LoxTask(function.toString());
+            Interpreter worker = new Interpreter(interpreter);
+            running.incrementAndGet();
+            try {
+                start(() -> run(worker, function, task));
+            } catch (RuntimeException | Error e) {
+                running.decrementAndGet();
+                throw e;
+            }
+            return task;
+        });
+
+        NativeFunction.define(globals, "join", 1, (interpreter, arguements) -> {
+            if (!(arguements.get(0) instanceof LoxTask)) {
+                throw new NativeError("Expected a task.");
+            }
+            try {
+                return ((LoxTask) arguements.get(0)).join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeError("Interrupted.");
+            }
+        });
+
+        NativeFunction.define(globals, "channel", 1, (interpreter, arguements) -> {
+            double capacity = NativeFunction.number(arguements.get(0), "Channel capacity");
+            if (capacity < 1 || capacity != Math.floor(capacity) || capacity > Integer.MAX_VALUE) {
+                throw new NativeError("Channel capacity must be a positive integer.");
+            }
+            return new LoxChannel((int) capacity);
+        });
+
+        NativeFunction.define(globals, "send", 2, (interpreter, arguements) -> {
+            if (arguements.get(1) == null) {
+                throw new NativeError("Can't send nil, it marks a closed channel.");
+            }
+            try {
+                channel(arguements.get(0)).send(arguements.get(1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeError("Interrupted.");
+            }
+            return null;
+        });
+
+        NativeFunction.define(globals, "receive", 1, (interpreter, arguements) -> {
+            try {
+                return channel(arguements.get(0)).receive();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeError("Interrupted.");
+            }
+        });
+
+        NativeFunction.define(globals, "close", 1, (interpreter, arguements) -> {
+            channel(arguements.get(0)).close();
+            return null;
+        });
+    }
+
+    private static void run(Interpreter worker, LoxCallable function, LoxTask task) {
+        try {
+            task.finish(function.call(worker, new ArrayList<>()));
+        } catch (RuntimeError error) {
+            Lox.runtimeError(error);
+            task.fail(error.getMessage());
+        } catch (StackOverflowError error) {
+            Lox.taskError(task, "Stack overflow.");
+            task.fail("Stack overflow.");
+        } catch (Throwable error) {
+            // nothing else would report it, the task's thread just ends
+            Lox.taskError(task, error.toString());
+            task.fail(error.toString());
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    static boolean tasksRunning() {
+        return running.get() > 0;
+    }
+
+    private static void start(Runnable body) {
+        if (START_VIRTUAL != null) {
+            try {
+                START_VIRTUAL.invoke(null, body);
+                return;
+            } catch (ReflectiveOperationException e) {
+                // a preview JDK with previews off
+            }
+        }
+        Thread thread = new Thread(body, "lox-task");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static Method startVirtualMethod() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    private static LoxChannel channel(Object value) {
+        if (value instanceof LoxChannel) {
+            return (LoxChannel) value;
+        }
+        throw new NativeError("Expected a channel.");
+    }
+}
@@ -0,0 +1,111 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Timing and measurement natives, so scripts can time their own hot paths:
+//   clock()               wall clock seconds
+//   nanoTime()            monotonic nanoseconds, only meaningful as a difference
+//   bench(fn, iterations) warms up then times fn() per call, prints a summary
+//                         and returns the mean in nanoseconds
+//   gcCount()             collections run so far, over all collectors
+//   allocatedBytes()      bytes allocated by the interpreter thread so far,
+//                         nil when the JVM can't tell
+class TimingNatives {
+    private static final double[] PERCENTILES = { 0.5, 0.9, 0.99 };
+    // every run's time is kept for the percentiles, this caps them at 80MB
+    private static final int MAX_ITERATIONS = 10000000;
+
+    static void define(Environment globals) {
+        NativeFunction.define(globals, "clock", 0,
+                (interpreter, arguements) -> (double) System.currentTimeMillis() / 1000.0);
+
+        NativeFunction.define(globals, "nanoTime", 0,
+                (interpreter, arguements) -> (double) System.nanoTime());
+
+        NativeFunction.define(globals, "bench", 2, TimingNatives::bench);
+
+        NativeFunction.define(globals, "gcCount", 0,
+                (interpreter, arguements) -> (double) gcCount());
+
+        NativeFunction.define(globals, "allocatedBytes", 0, (interpreter, arguements) -> {
+            long bytes = allocatedBytes();
+            return bytes < 0 ? null : (Object) (double) bytes;
+        });
+    }
+
+    private static Object bench(Interpreter interpreter, List<Object> arguements) {
+        LoxCallable function = NativeFunction.callable(arguements.get(0), "Benchmarked value");
+        if (function.arity() != 0) {
+            throw new NativeError("Benchmarked function must take no arguements.");
+        }
+        double count = NativeFunction.number(arguements.get(1), "Iteration count");
+        if (count < 1 || count != Math.floor(count) || count > MAX_ITERATIONS) {
+            throw new NativeError("Iteration count must be an integer from 1 to "
+                    + MAX_ITERATIONS + ".");
+        }
+        int iterations = (int) count;
+
+        List<Object> none = new ArrayList<>();
+        // give the JIT a chance to compile the path being measured
+        int warmup = Math.max(1, iterations / 5);
+        for (int i = 0; i < warmup; i++) {
+            function.call(interpreter, none);
+        }
+
+        long[] samples = new long[iterations];
+        long gcBefore = gcCount();
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < iterations; i++) {
+            long start = System.nanoTime();
+            function.call(interpreter, none);
+            samples[i] = System.nanoTime() - start;
+        }
+        long gcs = gcCount() - gcBefore;
+        long allocated = allocatedBytes() - allocatedBefore;
+
+        Arrays.sort(samples);
+        double total = 0;
+        for (long sample : samples) {
+            total += sample;
+        }
+        double mean = total / iterations;
+
+        StringBuilder report = new StringBuilder();
+        report.append("bench ").append(function).append(": ").append(iterations)
+                .append(" runs, mean ").append(Math.round(mean)).append(" ns");
+        for (double percentile : PERCENTILES) {
+            int index = Math.min(iterations - 1, (int) Math.ceil(percentile * iterations) - 1);
+            report.append(", p").append(Math.round(percentile * 100)).append(" ")
+                    .append(samples[index]).append(" ns");
+        }
+        report.append(", max ").append(samples[iterations - 1]).append(" ns");
+        report.append(", ").append(gcs).append(" gcs");
+        if (allocatedBefore >= 0) {
+            report.append(", ").append(allocated / iterations).append(" bytes/run");
+        }
+        interpreter.println(report.toString());
+
+        return mean;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, collector.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,13 @@
+package com.craftinginterpreters.lox;
+
+// Thrown by the optimizing passes (LoopOptimizer, TypeInference) to give up on
+// code with an expression nested past Parser.DEEP_NESTING, which they walk
+// recursively. Only ever caught by the pass that threw it, so it skips the
+// stack trace.
+class TooDeep extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    TooDeep() {
+        super(null, null, false, false);
+    }
+}
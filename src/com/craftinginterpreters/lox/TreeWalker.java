@@ -0,0 +1,374 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Visits every statement and expression under some code, the bodies of nested
+// functions and methods included, for the passes that only look at a few
+// kinds of node (Inliner, LoopOptimizer, PurityCheck). A subclass overrides
+// the visit methods it cares about and calls super to go on into the node's
+// children, or overrides expression() to see every expression.
+//
+// The visit methods only queue a node's children, the nodes come off a work
+// list rather than the Java stack so deeply nested expressions are fine.
+// Every node is visited before its children, and children in source order.
+// The scope hooks are called the way the Resolver opens and closes scopes.
+//
+// children() is the one list of what each kind of expression holds, for the
+// walk here and for the passes that recurse over small expressions
+// themselves (InlineSite, LoopOptimizer).
+abstract class TreeWalker implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final Children CHILDREN = new Children();
+
+    // The expressions an expression holds, in source order. A function
+    // expression has none, its body is statements.
+    private static class Children implements Expr.Visitor<List<Expr>> {
+        @Override
+        public List<Expr> visitAssignExpr(Expr.Assign expr) {
+            return Collections.singletonList(expr.value);
+        }
+
+        @Override
+        public List<Expr> visitBinaryExpr(Expr.Binary expr) {
+            return Arrays.asList(expr.left, expr.right);
+        }
+
+        @Override
+        public List<Expr> visitCallExpr(Expr.Call expr) {
+            List<Expr> children = new ArrayList<>(expr.arguments.size() + 1);
+            children.add(expr.callee);
+            children.addAll(expr.arguments);
+            return children;
+        }
+
+        @Override
+        public List<Expr> visitFunctionExpr(Expr.Function expr) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Expr> visitGetExpr(Expr.Get expr) {
+            return Collections.singletonList(expr.object);
+        }
+
+        @Override
+        public List<Expr> visitGroupingExpr(Expr.Grouping expr) {
+            return Collections.singletonList(expr.expression);
+        }
+
+        @Override
+        public List<Expr> visitIndexExpr(Expr.Index expr) {
+            return Arrays.asList(expr.object, expr.index);
+        }
+
+        @Override
+        public List<Expr> visitIndexSetExpr(Expr.IndexSet expr) {
+            return Arrays.asList(expr.object, expr.index, expr.value);
+        }
+
+        @Override
+        public List<Expr> visitLiteralExpr(Expr.Literal expr) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Expr> visitLogicalExpr(Expr.Logical expr) {
+            return Arrays.asList(expr.left, expr.right);
+        }
+
+        @Override
+        public List<Expr> visitSetExpr(Expr.Set expr) {
+            return Arrays.asList(expr.object, expr.value);
+        }
+
+        @Override
+        public List<Expr> visitSuperExpr(Expr.Super expr) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Expr> visitThisExpr(Expr.This expr) {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public List<Expr> visitUnaryExpr(Expr.Unary expr) {
+            return Collections.singletonList(expr.right);
+        }
+
+        @Override
+        public List<Expr> visitVariableExpr(Expr.Variable expr) {
+            return Collections.emptyList();
+        }
+    }
+    // Queued to open a scope once the nodes before it are done, body is
+    // only set for a function's
+    private static class Enter {
+        final Object owner;
+        final List<Stmt> body;
+
+        Enter(Object owner, List<Stmt> body) {
+            this.owner = owner;
+            this.body = body;
+        }
+    }
+
+    private static final Object END_SCOPE = new Object();
+    private static final Object END_FUNCTION = new Object();
+
+    private final List<Object> pending = new ArrayList<>();
+
+    void walk(List<Stmt> statements) {
+        add(statements);
+        run();
+    }
+
+    void walk(Stmt stmt) {
+        add(stmt);
+        run();
+    }
+
+    void walk(Expr expr) {
+        add(expr);
+        run();
+    }
+
+    static List<Expr> children(Expr expr) {
+        return expr.accept(CHILDREN);
+    }
+
+    // Called with every expression, before it's visited
+    void expression(Expr expr) {
+    }
+
+    // A block, or the scope holding `super` with the class as its owner
+    void beginScope(Object owner) {
+    }
+
+    void endScope() {
+    }
+
+    // The params (and `this`) share the body's scope
+    void beginFunction(List<Stmt> body) {
+    }
+
+    void endFunction() {
+    }
+
+    private void run() {
+        // the nodes are added in source order and reversed once a node's
+        // children are all in, so the first child comes off next
+        int start = pending.size();
+        Collections.reverse(pending.subList(0, start));
+        while (!pending.isEmpty()) {
+            Object node = pending.remove(pending.size() - 1);
+            start = pending.size();
+            if (node instanceof Expr) {
+                expression((Expr) node);
+                ((Expr) node).accept(this);
+            } else if (node instanceof Stmt) {
+                ((Stmt) node).accept(this);
+            } else if (node instanceof Enter) {
+                Enter enter = (Enter) node;
+                if (enter.body != null) {
+                    beginFunction(enter.body);
+                } else {
+                    beginScope(enter.owner);
+                }
+            } else if (node == END_FUNCTION) {
+                endFunction();
+            } else {
+                endScope();
+            }
+            Collections.reverse(pending.subList(start, pending.size()));
+        }
+    }
+
+    private void add(Object node) {
+        if (node instanceof List) {
+            pending.addAll((List<?>) node);
+        } else if (node != null) {
+            pending.add(node);
+        }
+    }
+
+    private void addFunction(List<Stmt> body) {
+        pending.add(new Enter(body, body));
+        pending.addAll(body);
+        pending.add(END_FUNCTION);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        pending.add(new Enter(stmt, null));
+        add(stmt.statements);
+        pending.add(END_SCOPE);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        add(stmt.superclass);
+        if (stmt.superclass != null) {
+            pending.add(new Enter(stmt, null));
+        }
+        for (Stmt.Function method : stmt.methods) {
+            addFunction(method.body);
+        }
+        if (stmt.superclass != null) {
+            pending.add(END_SCOPE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        add(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        // a lazy body is looked at when it's parsed
+        if (stmt.body != null) {
+            addFunction(stmt.body);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        add(stmt.condition);
+        add(stmt.thenBranch);
+        add(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        add(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        add(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        add(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        add(stmt.condition);
+        add(stmt.body);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        add(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionExpr(Expr.Function expr) {
+        addFunction(expr.body);
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitIndexExpr(Expr.Index expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitIndexSetExpr(Expr.IndexSet expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        add(children(expr));
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        add(children(expr));
+        return null;
+    }
+}
@@ -0,0 +1,430 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Flow sensitive type inference over the resolved AST, run after the Resolver
+// (and on lazy bodies once they're parsed). Sets Expr.type where the value's
+// type is certain, so the interpreter can do arithmetic and comparisons on
+// unboxed doubles without checking the operands.
+//
+// Types come from literals and operators (`-`, `*` and `/` always give a
+// number, comparisons a bool) and flow through the locals of a function: a
+// local has the type of whatever was last assigned to it on every path that
+// reaches a read. Branches join, and loops are re-analysed until the types at
+// the loop head stop changing. Globals, fields, call results, params and
+// locals read from an enclosing function are UNKNOWN, as is any local a nested
+// function assigns, since a call could change it.
+class TypeInference implements Expr.Visitor<LoxType>, Stmt.Visitor<Void> {
+    private static class Scope {
+        // the block, function body or class that opens the scope
+        final Object owner;
+        final int function;
+        int nextIndex = 0;
+
+        Scope(Object owner, int function) {
+            this.owner = owner;
+            this.function = function;
+        }
+    }
+
+    // A local variable: the scope that declared it and its slot
+    private static class Slot {
+        final Object scope;
+        final int index;
+
+        Slot(Object scope, int index) {
+            this.scope = scope;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Slot && ((Slot) other).scope == scope
+                    && ((Slot) other).index == index;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(scope) * 31 + index;
+        }
+    }
+
+    private final List<Scope> scopes = new ArrayList<>();
+    private int function = 0;
+    // types of the current function's locals, a missing slot is UNKNOWN
+    private Map<Slot, LoxType> types = new HashMap<>();
+    // the types at each break out of the innermost loop
+    private List<Map<Slot, LoxType>> breaks = null;
+    // locals assigned from a function nested inside the one declaring them
+    private final Set<Slot> captured = new HashSet<>();
+    private boolean foundCapture;
+    // every node given a type, cleared again if the analysis gives up
+    private final List<Expr> typed = new ArrayList<>();
+
+    // A script's top level statements
+    void infer(List<Stmt> statements) {
+        try {
+            // a capture found late can invalidate types given earlier in the
+            // function, so go again until there are no new ones
+            do {
+                foundCapture = false;
+                types = new HashMap<>();
+                for (Stmt stmt : statements) {
+                    stmt.accept(this);
+                }
+            } while (foundCapture);
+        } catch (TooDeep e) {
+            for (Expr expr : typed) {
+                expr.type = LoxType.UNKNOWN;
+            }
+        }
+    }
+
+    // A top level function body parsed on its first call, see LazyBody
+    void infer(Stmt.Function function) {
+        beginFunction(function.body, function.params.size());
+        infer(function.body);
+        endFunction();
+    }
+
+    private LoxType infer(Expr expr) {
+        if (expr.deep) {
+            throw new TooDeep();
+        }
+        LoxType type = expr.accept(this);
+        // set every time, a later pass over a loop can lose a type
+        expr.type = type;
+        if (type != LoxType.UNKNOWN) {
+            typed.add(expr);
+        }
+        return type;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new Scope(stmt, function));
+        for (Stmt inner : stmt.statements) {
+            inner.accept(this);
+        }
+        scopes.remove(scopes.size() - 1);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declare(LoxType.UNKNOWN);
+        if (stmt.superclass != null) {
+            infer(stmt.superclass);
+            // the scope holding `super`
+            scopes.add(new Scope(stmt, function));
+            declare(LoxType.UNKNOWN);
+        }
+        for (Stmt.Function method : stmt.methods) {
+            inferFunction(method.body, method.params.size() + 1);
+        }
+        if (stmt.superclass != null) {
+            scopes.remove(scopes.size() - 1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        declare(LoxType.UNKNOWN);
+        // lazy bodies are done when they're parsed
+        if (stmt.body != null) {
+            inferFunction(stmt.body, stmt.params.size());
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        infer(stmt.condition);
+        Map<Slot, LoxType> before = new HashMap<>(types);
+        stmt.thenBranch.accept(this);
+        Map<Slot, LoxType> afterThen = types;
+        types = before;
+        if (stmt.elseBranch != null) {
+            stmt.elseBranch.accept(this);
+        }
+        types = join(afterThen, types);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        infer(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) {
+            infer(stmt.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        infer(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        LoxType type = stmt.initializer != null ? infer(stmt.initializer) : LoxType.UNKNOWN;
+        declare(type);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        List<Map<Slot, LoxType>> enclosingBreaks = breaks;
+        Map<Slot, LoxType> exit;
+        for (;;) {
+            Map<Slot, LoxType> head = new HashMap<>(types);
+            breaks = new ArrayList<>();
+            infer(stmt.condition);
+            exit = new HashMap<>(types);
+            stmt.body.accept(this);
+
+            // the next time round starts from either the entry or the end of
+            // the body, stop once that adds nothing new
+            Map<Slot, LoxType> next = join(head, types);
+            types = next;
+            if (next.equals(head)) {
+                break;
+            }
+        }
+        for (Map<Slot, LoxType> atBreak : breaks) {
+            exit = join(exit, atBreak);
+        }
+        types = exit;
+        breaks = enclosingBreaks;
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        breaks.add(new HashMap<>(types));
+        return null;
+    }
+
+    @Override
+    public LoxType visitAssignExpr(Expr.Assign expr) {
+        LoxType type = infer(expr.value);
+        if (expr.distance >= 0) {
+            Scope scope = declaringScope(expr.distance);
+            Slot slot = new Slot(scope.owner, expr.index);
+            if (scope.function < function) {
+                foundCapture |= captured.add(slot);
+            } else {
+                set(slot, type);
+            }
+        }
+        return type;
+    }
+
+    @Override
+    public LoxType visitBinaryExpr(Expr.Binary expr) {
+        LoxType left = infer(expr.left);
+        LoxType right = infer(expr.right);
+        switch (expr.operator.type) {
+            case GREATER:
+            case GREATER_EQUAL:
+            case LESS:
+            case LESS_EQUAL:
+            case BANG_EQUAL:
+            case EQUAL_EQUAL:
+                return LoxType.BOOL;
+            case MINUS:
+            case SLASH:
+            case STAR:
+                return LoxType.NUMBER;
+            case PLUS:
+                if (left == right && (left == LoxType.NUMBER || left == LoxType.STRING)) {
+                    return left;
+                }
+                return LoxType.UNKNOWN;
+            default:
+                return LoxType.UNKNOWN;
+        }
+    }
+
+    @Override
+    public LoxType visitCallExpr(Expr.Call expr) {
+        infer(expr.callee);
+        for (Expr argument : expr.arguments) {
+            infer(argument);
+        }
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitFunctionExpr(Expr.Function expr) {
+        inferFunction(expr.body, expr.params.size());
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitGetExpr(Expr.Get expr) {
+        infer(expr.object);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitGroupingExpr(Expr.Grouping expr) {
+        return infer(expr.expression);
+    }
+
+    @Override
+    public LoxType visitIndexExpr(Expr.Index expr) {
+        infer(expr.object);
+        infer(expr.index);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitIndexSetExpr(Expr.IndexSet expr) {
+        infer(expr.object);
+        infer(expr.index);
+        infer(expr.value);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) {
+            return LoxType.NUMBER;
+        }
+        if (expr.value instanceof String) {
+            return LoxType.STRING;
+        }
+        if (expr.value instanceof Boolean) {
+            return LoxType.BOOL;
+        }
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitLogicalExpr(Expr.Logical expr) {
+        LoxType left = infer(expr.left);
+        // the right operand may not run
+        Map<Slot, LoxType> before = new HashMap<>(types);
+        LoxType right = infer(expr.right);
+        types = join(before, types);
+        return left == right ? left : LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitSetExpr(Expr.Set expr) {
+        infer(expr.object);
+        infer(expr.value);
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitSuperExpr(Expr.Super expr) {
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitThisExpr(Expr.This expr) {
+        return LoxType.UNKNOWN;
+    }
+
+    @Override
+    public LoxType visitUnaryExpr(Expr.Unary expr) {
+        infer(expr.right);
+        return expr.operator.type == TokenType.BANG ? LoxType.BOOL : LoxType.NUMBER;
+    }
+
+    @Override
+    public LoxType visitVariableExpr(Expr.Variable expr) {
+        if (expr.distance == -1) {
+            return LoxType.UNKNOWN;
+        }
+        Scope scope = declaringScope(expr.distance);
+        Slot slot = new Slot(scope.owner, expr.index);
+        if (scope.function < function || captured.contains(slot)) {
+            return LoxType.UNKNOWN;
+        }
+        return types.getOrDefault(slot, LoxType.UNKNOWN);
+    }
+
+    // Each function starts with nothing known, its params (and `this`)
+    // take the first slots of its scope
+    private void inferFunction(List<Stmt> body, int params) {
+        Map<Slot, LoxType> enclosingTypes = types;
+        List<Map<Slot, LoxType>> enclosingBreaks = breaks;
+        types = new HashMap<>();
+        breaks = null;
+
+        beginFunction(body, params);
+        for (Stmt stmt : body) {
+            stmt.accept(this);
+        }
+        endFunction();
+
+        types = enclosingTypes;
+        breaks = enclosingBreaks;
+    }
+
+    private void beginFunction(List<Stmt> body, int params) {
+        function++;
+        Scope scope = new Scope(body, function);
+        scope.nextIndex = params;
+        scopes.add(scope);
+    }
+
+    private void endFunction() {
+        scopes.remove(scopes.size() - 1);
+        function--;
+    }
+
+    // Gives the next slot in the innermost scope, as the Resolver did, a type.
+    // Declarations at the top level are globals and have no slot.
+    private void declare(LoxType type) {
+        if (scopes.isEmpty()) {
+            return;
+        }
+        Scope scope = scopes.get(scopes.size() - 1);
+        set(new Slot(scope.owner, scope.nextIndex++), type);
+    }
+
+    private void set(Slot slot, LoxType type) {
+        if (type == LoxType.UNKNOWN) {
+            types.remove(slot);
+        } else {
+            types.put(slot, type);
+        }
+    }
+
+    private Scope declaringScope(int distance) {
+        return scopes.get(scopes.size() - 1 - distance);
+    }
+
+    // What's certain after either of two paths
+    private static Map<Slot, LoxType> join(Map<Slot, LoxType> a, Map<Slot, LoxType> b) {
+        Map<Slot, LoxType> joined = new HashMap<>();
+        for (Map.Entry<Slot, LoxType> entry : a.entrySet()) {
+            if (entry.getValue() == b.get(entry.getKey())) {
+                joined.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return joined;
+    }
+}
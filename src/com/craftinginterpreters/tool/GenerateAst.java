@@ -15,28 +15,39 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
+                "Assign : Token name, Expr value | int distance = -1, int index,"
+                        + " Superinstruction form = Superinstruction.NONE",
+                "Binary   : Expr left, Token operator, Expr right"
+                        + " | Superinstruction form = Superinstruction.NONE",
+                "Call     : Expr callee, Token paren, List<Expr> arguments | InlineSite inline",
                 "Function   : List<Token> params, List<Stmt> body",
+                "Get      : Expr object, Token name | PropertyCache cache",
                 "Grouping : Expr expression",
+                "Index    : Expr object, Token bracket, Expr index",
+                "IndexSet : Expr object, Token bracket, Expr index, Expr value",
                 "Literal  : Object value",
                 "Logical : Expr left, Token operator, Expr right",
+                "Set      : Expr object, Token name, Expr value | PropertyCache cache",
+                "Super    : Token keyword, Token method | int distance = -1, int index",
+                "This     : Token keyword | int distance = -1, int index",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"));
+                "Variable : Token name | int distance = -1, int index"));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
                 "Block : List<Stmt> statements",
+                "Class : Token name, Expr.Variable superclass," +
+                        " List<Stmt.Function> methods",
                 "Expression : Expr expression",
                 "Function   : Token name, List<Token> params," +
-                        " List<Stmt> body",
+                        " List<Stmt> body | LazyBody lazyBody",
                 "If : Expr condition, Stmt thenBranch,"
                         + " Stmt elseBranch",
-                "Print : Expr expression",
+                "Print : Expr expression | Superinstruction form = Superinstruction.NONE",
                 "Return : Token keyword, Expr value",
                 "Var : Token name, Expr initializer",
-                "While :  Expr condition, Stmt body",
-                "Break : "));
+                "While :  Expr condition, Stmt body | int invariants",
+                "Break : ",
+                "Yield : Token keyword, Expr value"));
     }
 
     private static void defineAst(
@@ -60,6 +71,20 @@ public class GenerateAst {
             defineType(writer, baseName, className, fields);
         }
 
+        writer.println();
+        writer.println("   // Execution count, only maintained when the interpreter is profiling.");
+        writer.println("   long hits;");
+        if (baseName.equals("Expr")) {
+            writer.println("   // Nested past Parser.DEEP_NESTING, evaluated and resolved with explicit stacks.");
+            writer.println("   boolean deep;");
+            writer.println("   // Set when the value is cached for each run of an enclosing loop, see LoopOptimizer.");
+            writer.println("   Hoisted hoisted;");
+            writer.println("   // Proven by TypeInference, UNKNOWN values are checked at runtime.");
+            writer.println("   LoxType type = LoxType.UNKNOWN;");
+        } else {
+            writer.println("   // A yield of the enclosing function runs somewhere inside, see LoxGenerator.");
+            writer.println("   boolean yields;");
+        }
         writer.println();
         writer.println("   abstract <R> R accept(Visitor<R> visitor);");
 
@@ -84,6 +109,14 @@ public class GenerateAst {
     private static void defineType(
             PrintWriter writer, String baseName,
             String className, String fieldList) {
+        // Fields after a '|' are mutable and left out of the constructor,
+        // the interpreter uses them to annotate nodes (e.g. inline caches)
+        String mutableList = "";
+        if (fieldList.contains("|")) {
+            mutableList = fieldList.split("\\|")[1].trim();
+            fieldList = fieldList.split("\\|")[0].trim();
+        }
+
         writer.println(" static class " + className + " extends " +
                 baseName + " {");
 
@@ -109,6 +142,13 @@ public class GenerateAst {
             writer.println("   }");
         }
 
+        if (mutableList.length() > 0) {
+            writer.println();
+            for (String field : mutableList.split(", ")) {
+                writer.println("   " + field + ";");
+            }
+        }
+
         writer.println();
         writer.println("   @Override");
         writer.println("   <R> R accept(Visitor<R> visitor) {");
@@ -0,0 +1,58 @@
+#!/bin/sh
+# Runs every test script here and compares what it prints (stdout and stderr)
+# with the .expected file next to it. Takes the directory the interpreter was
+# compiled into, from the repository root:
+#   javac -d out $(find src -name '*.java')
+#   tests/run.sh out
+# A NAME.prelude.lox is saved as a snapshot first, and NAME.lox is run
+# against it with --snapshot.
+# A NAME.repl file is typed into the REPL instead, line by line.
+# A NAME.flags file holds one set of options per line. The test is run again
+# with each set and has to print the same thing, e.g. --no-inline for a test
+# of the inliner.
+
+classes=${1:?usage: tests/run.sh <classes directory>}
+dir=$(dirname "$0")
+image=${TMPDIR:-/tmp}/lox-test-$$.img
+lox() {
+  java -cp "$classes" com.craftinginterpreters.lox.Lox "$@" 2>&1
+}
+
+failed=0
+# check NAME LABEL OPTIONS...
+check() {
+  name=$1
+  label=$2
+  shift 2
+  if [ -f "$name.repl" ]; then
+    actual=$(lox "$@" < "$name.repl")
+  elif [ -f "$name.prelude.lox" ]; then
+    lox "$@" --save-snapshot="$image" "$name.prelude.lox" < /dev/null > /dev/null
+    actual=$(lox "$@" --snapshot="$image" "$name.lox" < /dev/null)
+    rm -f "$image"
+  else
+    actual=$(lox "$@" "$name.lox" < /dev/null)
+  fi
+  if [ "$actual" = "$(cat "$name.expected")" ]; then
+    echo "ok   $label"
+  else
+    echo "FAIL $label"
+    echo "$actual" | diff "$name.expected" - | sed 's/^/     /'
+    failed=1
+  fi
+}
+
+for script in "$dir"/*.lox "$dir"/*.repl; do
+  case "$script" in
+    *.prelude.lox) continue ;;
+  esac
+  name=${script%.*}
+  check "$name" "$(basename "$name")"
+  if [ -f "$name.flags" ]; then
+    while read -r flags; do
+      # word splitting on purpose, a line can hold several options
+      check "$name" "$(basename "$name") $flags" $flags
+    done < "$name.flags"
+  fi
+done
+exit $failed